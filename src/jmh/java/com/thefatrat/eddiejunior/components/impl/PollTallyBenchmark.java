@@ -0,0 +1,155 @@
+package com.thefatrat.eddiejunior.components.impl;
+
+import com.thefatrat.eddiejunior.exceptions.BotWarningException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link PollComponent.Poll} with the representation it replaced, which kept a set of option
+ * labels per user id. Every voter picks two of ten options. The heap retained by a poll of each kind is
+ * printed once per fork, and allocations per operation are shown with {@code -prof gc}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = "-Xmx2g")
+public class PollTallyBenchmark {
+
+    private static final int OPTIONS = 10;
+    private static final int PICKS = 2;
+
+    @Param("100000")
+    private int voters;
+
+    private String[] options;
+    private String[] users;
+    private PollComponent.Poll poll;
+    private LegacyPoll legacyPoll;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        options = new String[OPTIONS];
+        for (int i = 0; i < OPTIONS; i++) {
+            options[i] = "Option " + i;
+        }
+        Random random = new Random(1);
+        users = new String[voters];
+        for (int i = 0; i < voters; i++) {
+            users[i] = Long.toString(100_000_000_000_000_000L + random.nextInt(Integer.MAX_VALUE) * 1000L + i);
+        }
+
+        long base = usedHeap();
+        poll = buildPoll();
+        long compact = usedHeap() - base;
+        legacyPoll = buildLegacyPoll();
+        long legacy = usedHeap() - base - compact;
+        System.out.printf("%nRetained heap for %d voters: poll %.1f MB, legacy poll %.1f MB%n",
+            voters, compact / 1e6, legacy / 1e6);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    private PollComponent.Poll buildPoll() {
+        PollComponent.Poll poll = new PollComponent.Poll("1", "2", PICKS, options);
+        for (int i = 0; i < users.length; i++) {
+            for (int j = 0; j < PICKS; j++) {
+                poll.addVote(users[i], options[(i + j * 3) % OPTIONS]);
+            }
+        }
+        return poll;
+    }
+
+    private LegacyPoll buildLegacyPoll() {
+        LegacyPoll poll = new LegacyPoll(PICKS, options);
+        for (int i = 0; i < users.length; i++) {
+            for (int j = 0; j < PICKS; j++) {
+                poll.addVote(users[i], options[(i + j * 3) % OPTIONS]);
+            }
+        }
+        return poll;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public PollComponent.Poll addVotes() {
+        return buildPoll();
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public LegacyPoll addVotesLegacy() {
+        return buildLegacyPoll();
+    }
+
+    @Benchmark
+    public Map<String, Integer> getResults() {
+        return poll.getResults();
+    }
+
+    @Benchmark
+    public Map<String, Integer> getResultsLegacy() {
+        return legacyPoll.getResults();
+    }
+
+    /**
+     * The votes and results of a poll as they were kept before options were numbered.
+     */
+    public static class LegacyPoll {
+
+        private final Set<String> choices = new HashSet<>();
+        private final Map<String, Set<String>> votes = new HashMap<>();
+        private final int maxPicks;
+
+        private LegacyPoll(int maxPicks, String... choices) {
+            this.maxPicks = maxPicks;
+            this.choices.addAll(Set.of(choices));
+        }
+
+        private void addVote(String user, String vote) {
+            Set<String> userVotes = votes.computeIfAbsent(user, k -> new HashSet<>());
+            if (userVotes.size() >= maxPicks || !userVotes.add(vote)) {
+                throw new BotWarningException("You already voted for `%s`", vote);
+            }
+        }
+
+        private Map<String, Integer> getResults() {
+            Map<String, Integer> results = new HashMap<>();
+            choices.forEach(choice -> results.put(choice, 0));
+
+            for (Set<String> set : votes.values()) {
+                for (String vote : set) {
+                    results.computeIfPresent(vote, (v, c) -> c + 1);
+                }
+            }
+
+            return results;
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+package com.thefatrat.eddiejunior.handlers;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares routing a button click through {@link PrefixHandler} with offering it to every listener through
+ * {@link SetHandler}, where each listener checks the prefix and splits the id itself. The listeners and ids
+ * are those of a server with every component enabled.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class PrefixHandlerBenchmark {
+
+    private static final String[] PREFIXES = {"feedback", "roles", "modmail", "fanart_approve", "fanart_deny",
+        "poll", "x"};
+    private static final String[] IDS = {
+        "poll-1189201920391829312-Option-A",
+        "roles-1-1189201920391829313",
+        "modmail-1189201920391829314",
+        "feedback-1189201920391829315-1189201920391829316",
+        "fanart_approve-1189201920391829317",
+        "x",
+    };
+
+    private final PrefixHandler<String[], Blackhole> prefixHandler = new PrefixHandler<>();
+    private final SetHandler<String, Blackhole> setHandler = new SetHandler<>();
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        for (String prefix : PREFIXES) {
+            int limit = "poll".equals(prefix) ? 2 : 0;
+            prefixHandler.addListener(prefix, limit, (arguments, blackhole) -> blackhole.consume(arguments));
+
+            String start = prefix + "-";
+            setHandler.addListener((id, blackhole) -> {
+                if (!id.startsWith(start) && !id.equals(prefix)) {
+                    return;
+                }
+                blackhole.consume(id.split("-", limit == 0 ? 0 : limit + 1));
+            });
+        }
+    }
+
+    private String nextId() {
+        String id = IDS[next];
+        next = (next + 1) % IDS.length;
+        return id;
+    }
+
+    @Benchmark
+    public void prefix(Blackhole blackhole) {
+        prefixHandler.handle(nextId(), arguments -> arguments, blackhole);
+    }
+
+    @Benchmark
+    public void broadcast(Blackhole blackhole) {
+        setHandler.handle(nextId(), blackhole);
+    }
+
+}
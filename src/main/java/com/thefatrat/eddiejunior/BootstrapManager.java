@@ -0,0 +1,90 @@
+package com.thefatrat.eddiejunior;
+
+import com.thefatrat.eddiejunior.sources.Server;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * Loads servers on a bounded pool of worker threads, so that guilds do not have to wait for each other's
+ * database and REST round-trips. Interactions for a server that is still loading are held back by
+ * {@link Server#whenReady(Runnable)} and replayed once the server has finished loading.
+ */
+public class BootstrapManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BootstrapManager.class);
+    private static final int DEFAULT_PARALLELISM = 4;
+
+    private final ExecutorService executor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger loaded = new AtomicInteger();
+    private volatile long batchStart = 0;
+
+    public BootstrapManager(int parallelism) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "bootstrap-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), factory);
+    }
+
+    /**
+     * Reads the number of bootstrap threads from the {@code bootstrap_threads} property.
+     *
+     * @return the configured parallelism, or a default if the property is absent or invalid
+     */
+    public static int getConfiguredParallelism() {
+        String property = Initializer.getInstance().getProperty("bootstrap_threads");
+        if (property == null) {
+            return DEFAULT_PARALLELISM;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(property.strip()));
+        } catch (NumberFormatException e) {
+            return DEFAULT_PARALLELISM;
+        }
+    }
+
+    /**
+     * Schedules the given server to be loaded. The server is marked as ready once the loader finishes,
+     * regardless of whether it succeeded.
+     *
+     * @param server the server to load
+     * @param loader the loading steps for the server
+     */
+    public void bootstrap(@NotNull Server server, @NotNull Consumer<Server> loader) {
+        if (pending.getAndIncrement() == 0) {
+            batchStart = System.nanoTime();
+            loaded.set(0);
+        }
+
+        executor.execute(() -> {
+            long start = System.nanoTime();
+            try {
+                loader.accept(server);
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to load server {}", server.getId(), e);
+            } finally {
+                server.setReady();
+                LOGGER.info("Loaded server {} in {} ms", server.getId(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+
+                int count = loaded.incrementAndGet();
+                if (pending.decrementAndGet() == 0) {
+                    LOGGER.info("Loaded {} server(s) in {} ms", count,
+                        TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - batchStart));
+                }
+            }
+        });
+    }
+
+}
@@ -4,6 +4,7 @@ import com.thefatrat.eddiejunior.components.Component;
 import com.thefatrat.eddiejunior.components.GlobalComponent;
 import com.thefatrat.eddiejunior.events.*;
 import com.thefatrat.eddiejunior.exceptions.BotException;
+import com.thefatrat.eddiejunior.metrics.CommandMetrics;
 import com.thefatrat.eddiejunior.reply.*;
 import com.thefatrat.eddiejunior.sources.Direct;
 import com.thefatrat.eddiejunior.sources.Server;
@@ -17,8 +18,12 @@ import net.dv8tion.jda.api.events.guild.GuildJoinEvent;
 import net.dv8tion.jda.api.events.guild.GuildLeaveEvent;
 import net.dv8tion.jda.api.events.guild.GuildReadyEvent;
 import net.dv8tion.jda.api.events.guild.member.GuildMemberJoinEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRemoveEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleAddEvent;
+import net.dv8tion.jda.api.events.guild.member.GuildMemberRoleRemoveEvent;
 import net.dv8tion.jda.api.events.guild.member.GuildMemberUpdateEvent;
 import net.dv8tion.jda.api.events.guild.scheduledevent.update.ScheduledEventUpdateStatusEvent;
+import net.dv8tion.jda.api.events.guild.update.GuildUpdateOwnerEvent;
 import net.dv8tion.jda.api.events.interaction.ModalInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.command.MessageContextInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.command.SlashCommandInteractionEvent;
@@ -27,6 +32,8 @@ import net.dv8tion.jda.api.events.interaction.component.ButtonInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.component.EntitySelectInteractionEvent;
 import net.dv8tion.jda.api.events.interaction.component.StringSelectInteractionEvent;
 import net.dv8tion.jda.api.events.message.MessageReceivedEvent;
+import net.dv8tion.jda.api.events.role.RoleDeleteEvent;
+import net.dv8tion.jda.api.events.role.update.RoleUpdatePermissionsEvent;
 import net.dv8tion.jda.api.events.session.ReadyEvent;
 import net.dv8tion.jda.api.events.stage.StageInstanceCreateEvent;
 import net.dv8tion.jda.api.events.stage.StageInstanceDeleteEvent;
@@ -40,19 +47,26 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.File;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 import java.util.stream.Stream;
 
 public class Bot extends ListenerAdapter {
 
     private static Bot instance;
 
-    private final Map<String, Server> servers = new HashMap<>();
+    private final Map<String, Server> servers = new ConcurrentHashMap<>();
     private final Direct direct = new Direct();
+    private final BootstrapManager bootstrapManager = new BootstrapManager(
+        BootstrapManager.getConfiguredParallelism());
+    private final GuildEventManager eventManager = new GuildEventManager(
+        GuildEventManager.getConfiguredParallelism());
     private Class<? extends Component>[] components;
     private long time = 0;
     private JDA jda = null;
     private CommandManager commandManager = null;
+    private WarmStartManager warmStartManager = null;
     private File log = null;
 
     private Bot() {
@@ -74,6 +88,14 @@ public class Bot extends ListenerAdapter {
         return jda;
     }
 
+    public GuildEventManager getEventManager() {
+        return eventManager;
+    }
+
+    public void setWarmStartManager(WarmStartManager warmStartManager) {
+        this.warmStartManager = warmStartManager;
+    }
+
     public void setLog(File log) {
         this.log = log;
     }
@@ -86,18 +108,63 @@ public class Bot extends ListenerAdapter {
         return servers.get(id);
     }
 
+    public List<String> getServerIds() {
+        return new ArrayList<>(servers.keySet());
+    }
+
     @SafeVarargs
     public final void setComponents(Class<? extends Component>... components) {
         this.components = components;
     }
 
     private void loadServer(String id) {
-        if (!servers.containsKey(id)) {
-            Server server = new Server(id);
-            servers.put(server.getId(), server);
-            server.registerComponents(components);
-            commandManager.setupGuildCommands(server);
+        Server server = new Server(id);
+        if (servers.putIfAbsent(id, server) == null) {
+            bootstrap(server);
+        }
+    }
+
+    /**
+     * Replaces a loaded server with a fresh one. The entry is swapped in one step, so that events that arrive
+     * during the reload always find a server, and wait until the new one has loaded. Servers that were
+     * unloaded in the meantime are not loaded again.
+     */
+    private void reloadServer(String id) {
+        SettingsCache.evict(id);
+        Server server = new Server(id);
+        Server old = servers.replace(id, server);
+        if (old == null) {
+            return;
+        }
+        old.destroy();
+        bootstrap(server);
+    }
+
+    private void bootstrap(Server server) {
+        String id = server.getId();
+        ServerSnapshot snapshot = warmStartManager == null ? null : warmStartManager.getSnapshot(id);
+
+        bootstrapManager.bootstrap(server, s -> {
+            s.loadServerSnapshot(snapshot);
+            try {
+                s.registerComponents(components);
+                commandManager.setupGuildCommands(s);
+            } finally {
+                s.releaseServerSnapshot();
+            }
+
+            if (snapshot != null) {
+                warmStartManager.reconcile(id, () -> reloadServer(id));
+            }
+        });
+    }
+
+    private void unloadServer(String id) {
+        Server server = servers.remove(id);
+        if (server != null) {
+            server.destroy();
         }
+        SettingsCache.evict(id);
     }
 
     public String getUptime() {
@@ -161,7 +228,7 @@ public class Bot extends ListenerAdapter {
 
     @Override
     public void onGuildLeave(@NotNull GuildLeaveEvent event) {
-        servers.remove(event.getGuild().getId());
+        unloadServer(event.getGuild().getId());
     }
 
     @Override
@@ -173,27 +240,33 @@ public class Bot extends ListenerAdapter {
             MenuReply reply = new MenuReply(event);
 
             try {
-                ButtonEvent<User> bE = new ButtonEvent<>(event.getUser(), event.getComponentId(), event.getMessage());
-                direct.getButtonHandler().handle(bE, reply);
+                String buttonId = event.getComponentId();
+                CommandMetrics.getInstance().record("direct", "button", () ->
+                    direct.getButtonHandler().handle(buttonId,
+                        arguments -> new ButtonEvent<>(event.getUser(), buttonId, arguments, event.getMessage()),
+                        reply));
 
             } catch (BotException e) {
                 reply.edit(e);
             }
         } else {
             MenuReply reply = new MenuReply(event);
-
-            try {
-                Server server = getServer(Objects.requireNonNull(event.getGuild()).getId());
-
-                Member member = Objects.requireNonNull(event.getMember());
-                String buttonId = event.getComponentId();
-                Message message = event.getMessage();
-
-                server.getButtonHandler().handle(new ButtonEvent<>(member, buttonId, message), reply);
-            } catch (BotException e) {
-                reply.hide();
-                reply.send(e);
-            }
+            Server server = getServer(Objects.requireNonNull(event.getGuild()).getId());
+
+            server.whenReady(() -> {
+                try {
+                    Member member = Objects.requireNonNull(event.getMember());
+                    String buttonId = event.getComponentId();
+                    Message message = event.getMessage();
+
+                    CommandMetrics.getInstance().record("button", getPrefix(buttonId), () ->
+                        server.getButtonHandler().handle(buttonId,
+                            arguments -> new ButtonEvent<>(member, buttonId, arguments, message), reply));
+                } catch (BotException e) {
+                    reply.hide();
+                    reply.send(e);
+                }
+            });
         }
     }
 
@@ -209,18 +282,23 @@ public class Bot extends ListenerAdapter {
 
         if (!event.isFromGuild()) {
             try {
-                direct.getStringSelectHandler().handle(event.getComponentId(), selectEvent, reply);
+                CommandMetrics.getInstance().record("direct", "select " + event.getComponentId(), () ->
+                    direct.getStringSelectHandler().handle(event.getComponentId(), selectEvent, reply));
             } catch (BotException e) {
                 reply.edit(e);
             }
         } else {
-            try {
-                getServer(Objects.requireNonNull(event.getGuild()).getId()).getStringSelectHandler()
-                    .handle(event.getComponentId(), selectEvent, reply);
-            } catch (BotException e) {
-                reply.hide();
-                reply.send(e);
-            }
+            Server server = getServer(Objects.requireNonNull(event.getGuild()).getId());
+
+            server.whenReady(() -> {
+                try {
+                    CommandMetrics.getInstance().record("select", event.getComponentId(), () ->
+                        server.getStringSelectHandler().handle(event.getComponentId(), selectEvent, reply));
+                } catch (BotException e) {
+                    reply.hide();
+                    reply.send(e);
+                }
+            });
         }
 
     }
@@ -234,16 +312,19 @@ public class Bot extends ListenerAdapter {
             Guild guild = Objects.requireNonNull(event.getGuild());
 
             MenuReply reply = new MenuReply(event);
+            Server server = servers.get(guild.getId());
 
-            try {
-                SelectEvent<IMentionable> selectEvent = new SelectEvent<>(event.getUser(), event.getMessage(),
-                    event.getInteraction().getValues().get(0));
-                servers.get(guild.getId()).getEntitySelectHandler()
-                    .handle(event.getComponentId(), selectEvent, reply);
+            server.whenReady(() -> {
+                try {
+                    SelectEvent<IMentionable> selectEvent = new SelectEvent<>(event.getUser(), event.getMessage(),
+                        event.getInteraction().getValues().get(0));
+                    CommandMetrics.getInstance().record("select", event.getComponentId(), () ->
+                        server.getEntitySelectHandler().handle(event.getComponentId(), selectEvent, reply));
 
-            } catch (BotException e) {
-                reply.edit(e);
-            }
+                } catch (BotException e) {
+                    reply.edit(e);
+                }
+            });
         }
     }
 
@@ -257,17 +338,19 @@ public class Bot extends ListenerAdapter {
         Message message = event.getInteraction().getTarget();
         Guild guild = Objects.requireNonNull(event.getGuild());
         InteractionReply reply = new InteractionReply(event);
+        Server server = servers.get(guild.getId());
 
-        try {
-            String interaction = event.getName();
-            Server server = servers.get(guild.getId());
-            server.checkMessageInteractionPermissions(Objects.requireNonNull(event.getMember()), interaction);
-            server.getMessageInteractionHandler()
-                .handle(interaction, new InteractionEvent<>(message, event.getMember()), reply);
-        } catch (BotException e) {
-            reply.hide();
-            reply.send(e);
-        }
+        server.whenReady(() -> {
+            try {
+                String interaction = event.getName();
+                server.checkMessageInteractionPermissions(Objects.requireNonNull(event.getMember()), interaction);
+                server.getMessageInteractionHandler()
+                    .handle(interaction, new InteractionEvent<>(message, event.getMember()), reply);
+            } catch (BotException e) {
+                reply.hide();
+                reply.send(e);
+            }
+        });
     }
 
     @Override
@@ -280,17 +363,19 @@ public class Bot extends ListenerAdapter {
         Member member = event.getInteraction().getTargetMember();
         Guild guild = Objects.requireNonNull(event.getGuild());
         InteractionReply reply = new InteractionReply(event);
+        Server server = servers.get(guild.getId());
 
-        try {
-            String interaction = event.getName();
-            Server server = servers.get(guild.getId());
-            server.checkMemberInteractionPermissions(Objects.requireNonNull(event.getMember()), interaction);
-            server.getMemberInteractionHandler()
-                .handle(interaction, new InteractionEvent<>(member, event.getMember()), reply);
-        } catch (BotException e) {
-            reply.hide();
-            reply.send(e);
-        }
+        server.whenReady(() -> {
+            try {
+                String interaction = event.getName();
+                server.checkMemberInteractionPermissions(Objects.requireNonNull(event.getMember()), interaction);
+                server.getMemberInteractionHandler()
+                    .handle(interaction, new InteractionEvent<>(member, event.getMember()), reply);
+            } catch (BotException e) {
+                reply.hide();
+                reply.send(e);
+            }
+        });
     }
 
     @Override
@@ -311,16 +396,19 @@ public class Bot extends ListenerAdapter {
         String fullCommandName = event.getName() + (event.getSubcommandName() == null
             ? "" : " " + event.getSubcommandName());
 
-        try {
-            Server server = servers.get(guild.getId());
-            server.checkCommandPermissions(Objects.requireNonNull(event.getMember()), fullCommandName);
-            CommandEvent commandEvent = new CommandEvent(
-                event.getName(), event.getSubcommandName(), options, event.getGuildChannel(), event.getMember());
-            server.getCommandHandler().handle(event.getName(), commandEvent, reply);
-        } catch (BotException e) {
-            reply.hide();
-            reply.send(e);
-        }
+        Server server = servers.get(guild.getId());
+
+        server.whenReady(() -> {
+            try {
+                server.checkCommandPermissions(Objects.requireNonNull(event.getMember()), fullCommandName);
+                CommandEvent commandEvent = new CommandEvent(
+                    event.getName(), event.getSubcommandName(), options, event.getGuildChannel(), event.getMember());
+                server.getCommandHandler().handle(event.getName(), commandEvent, reply);
+            } catch (BotException e) {
+                reply.hide();
+                reply.send(e);
+            }
+        });
     }
 
     @Override
@@ -340,14 +428,18 @@ public class Bot extends ListenerAdapter {
         ModalEvent modalEvent = new ModalEvent(event.getModalId(), event.getMember(), map);
         Server server = servers.get(guild.getId());
 
-        try {
-            String id = server.getRequestManager().populateHolder(modalEvent);
-            server.getRequestManager().removeRequest(event.getModalId());
-            server.getModalHandler().handle(id, modalEvent, reply);
-        } catch (BotException e) {
-            reply.hide();
-            reply.send(e);
-        }
+        server.whenReady(() -> {
+            try {
+                String id = server.getRequestManager().populateHolder(modalEvent);
+                server.getRequestManager().removeRequest(event.getModalId());
+                String name = server.getModalHandler().getKeys().contains(id) ? id : "unknown";
+                CommandMetrics.getInstance().record("modal", name, () ->
+                    server.getModalHandler().handle(id, modalEvent, reply));
+            } catch (BotException e) {
+                reply.hide();
+                reply.send(e);
+            }
+        });
     }
 
     @Override
@@ -361,7 +453,7 @@ public class Bot extends ListenerAdapter {
         Guild guild = Objects.requireNonNull(event.getGuild());
         ArchiveEvent archiveEvent = new ArchiveEvent(event.getChannel().asThreadChannel(), archived);
 
-        servers.get(guild.getId()).getArchiveHandler().handle(archiveEvent, null);
+        whenReady(guild, server -> server.getArchiveHandler().handle(archiveEvent, null));
     }
 
     @Override
@@ -380,18 +472,77 @@ public class Bot extends ListenerAdapter {
         }
     }
 
+    @Override
+    public void onGuildMemberRoleAdd(@NotNull GuildMemberRoleAddEvent event) {
+        invalidatePermissionTier(event.getGuild(), event.getMember().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberRoleRemove(@NotNull GuildMemberRoleRemoveEvent event) {
+        invalidatePermissionTier(event.getGuild(), event.getMember().getIdLong());
+    }
+
+    @Override
+    public void onGuildMemberRemove(@NotNull GuildMemberRemoveEvent event) {
+        invalidatePermissionTier(event.getGuild(), event.getUser().getIdLong());
+    }
+
+    @Override
+    public void onRoleUpdatePermissions(@NotNull RoleUpdatePermissionsEvent event) {
+        invalidatePermissionTiers(event.getGuild());
+    }
+
+    @Override
+    public void onRoleDelete(@NotNull RoleDeleteEvent event) {
+        invalidatePermissionTiers(event.getGuild());
+    }
+
+    @Override
+    public void onGuildUpdateOwner(@NotNull GuildUpdateOwnerEvent event) {
+        invalidatePermissionTiers(event.getGuild());
+    }
+
+    /**
+     * Passes an event to the server of a guild once its components are registered. Events of guilds that are
+     * not loaded are dropped.
+     *
+     * @param guild   the guild of the event
+     * @param handler the handler of the event
+     */
+    private void whenReady(@NotNull Guild guild, @NotNull Consumer<Server> handler) {
+        Server server = servers.get(guild.getId());
+        if (server != null) {
+            server.whenReady(() -> handler.accept(server));
+        }
+    }
+
+    private void invalidatePermissionTier(@NotNull Guild guild, long memberId) {
+        Server server = servers.get(guild.getId());
+        if (server != null) {
+            server.invalidatePermissionTier(memberId);
+        }
+    }
+
+    private void invalidatePermissionTiers(@NotNull Guild guild) {
+        Server server = servers.get(guild.getId());
+        if (server != null) {
+            server.invalidatePermissionTiers();
+        }
+    }
+
     @Override
     public void onGuildMemberUpdate(@NotNull GuildMemberUpdateEvent event) {
         Guild guild = event.getGuild();
+        invalidatePermissionTier(guild, event.getMember().getIdLong());
         GenericEvent<Member> genericEvent = new GenericEvent<>(event.getMember());
-        servers.get(guild.getId()).<Member>getGenericHandler().handle("member", genericEvent, null);
+        whenReady(guild, server -> server.<Member>getGenericHandler().handle("member", genericEvent, null));
     }
 
     @Override
     public void onGuildMemberJoin(@NotNull GuildMemberJoinEvent event) {
         Guild guild = event.getGuild();
         GenericEvent<Member> genericEvent = new GenericEvent<>(event.getMember());
-        servers.get(guild.getId()).<Member>getGenericHandler().handle("member", genericEvent, null);
+        whenReady(guild, server -> server.<Member>getGenericHandler().handle("member", genericEvent, null));
     }
 
     @Override
@@ -407,7 +558,7 @@ public class Bot extends ListenerAdapter {
 
         EventEvent eventEvent = new EventEvent(event.getEntity().getName(), event.getEntity().getDescription(),
             event.getNewStatus(), event.getOldStatus());
-        getServer(event.getGuild().getId()).getEventHandler().handle(eventEvent, null);
+        whenReady(event.getGuild(), server -> server.getEventHandler().handle(eventEvent, null));
     }
 
     @Override
@@ -415,7 +566,7 @@ public class Bot extends ListenerAdapter {
         EventEvent eventEvent = new EventEvent(event.getInstance().getTopic(), null,
             ScheduledEvent.Status.ACTIVE,
             ScheduledEvent.Status.SCHEDULED);
-        getServer(event.getGuild().getId()).getEventHandler().handle(eventEvent, null);
+        whenReady(event.getGuild(), server -> server.getEventHandler().handle(eventEvent, null));
     }
 
     @Override
@@ -424,15 +575,17 @@ public class Bot extends ListenerAdapter {
             ScheduledEvent.Status.COMPLETED,
             ScheduledEvent.Status.ACTIVE
         );
-        getServer(event.getGuild().getId()).getEventHandler().handle(eventEvent, null);
+        whenReady(event.getGuild(), server -> server.getEventHandler().handle(eventEvent, null));
     }
 
-    public RestAction<?> registerGuildCommands(String guildId, Component component) {
-        return commandManager.registerGuildCommands(guildId, component);
+    public RestAction<?> syncGuildCommands(Server server, boolean force) {
+        return commandManager.syncGuildCommands(server, force);
     }
 
-    public RestAction<?> deregisterGuildCommands(String guildId, Component component) {
-        return commandManager.deregisterGuildCommands(guildId, component);
+    @NotNull
+    private static String getPrefix(@NotNull String componentId) {
+        int index = componentId.indexOf('-');
+        return index == -1 ? componentId : componentId.substring(0, index);
     }
 
 }
@@ -1,28 +1,38 @@
 package com.thefatrat.eddiejunior;
 
 import com.thefatrat.eddiejunior.components.Component;
+import com.thefatrat.eddiejunior.components.GlobalComponent;
 import com.thefatrat.eddiejunior.entities.Interaction;
 import com.thefatrat.eddiejunior.sources.Server;
 import net.dv8tion.jda.api.JDA;
 import net.dv8tion.jda.api.entities.Guild;
 import net.dv8tion.jda.api.entities.Member;
 import net.dv8tion.jda.api.entities.Message;
-import net.dv8tion.jda.api.interactions.commands.Command;
 import net.dv8tion.jda.api.interactions.commands.DefaultMemberPermissions;
 import net.dv8tion.jda.api.interactions.commands.build.CommandData;
 import net.dv8tion.jda.api.interactions.commands.build.Commands;
-import net.dv8tion.jda.api.interactions.commands.build.SlashCommandData;
 import net.dv8tion.jda.api.requests.RestAction;
+import net.dv8tion.jda.api.requests.restaction.CommandListUpdateAction;
 import net.dv8tion.jda.internal.requests.CompletedRestAction;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.CheckReturnValue;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.*;
 
+/**
+ * Keeps the commands registered at Discord in sync with the enabled components. The desired set of commands
+ * is hashed into a fingerprint which is stored in the database; commands are only overwritten, in a single
+ * bulk update, when the fingerprint differs from the one stored for the last successful update.
+ */
 public class CommandManager {
 
-    private final Map<String, Command> retrievedDefaultCommands = new HashMap<>();
-    private final Map<String, Map<String, Command>> retrievedGuildCommands = new HashMap<>();
+    private static final String GLOBAL_ID = "0";
+    private static final String COMPONENT = "commands";
+    private static final String FINGERPRINT = "fingerprint";
+
     private final JDA jda;
 
     public CommandManager(JDA jda) {
@@ -30,206 +40,118 @@ public class CommandManager {
     }
 
     public void setupGlobalCommands(Class<? extends Component>[] components) {
-        retrieveDefaultCommands().complete();
-
         Server server = Server.dummy();
         Collection<Component> globalInstances = server.registerComponents(components);
-        List<com.thefatrat.eddiejunior.entities.Command> commands = new ArrayList<>();
-        List<Interaction<?>> messageInteractions = new ArrayList<>();
-        List<Interaction<?>> userInteractions = new ArrayList<>();
-        for (Component component : globalInstances) {
-            commands.addAll(component.getCommands());
-            messageInteractions.addAll(component.getMessageInteractions());
-            userInteractions.addAll(component.getMemberInteractions());
-        }
 
-        List<CommandData> commandDataList = new ArrayList<>();
-        Set<String> commandNames = new HashSet<>();
-        for (com.thefatrat.eddiejunior.entities.Command command : commands) {
-            SlashCommandData slashCommandData = Commands.slash(command.getName(), command.getDescription())
-                .setDefaultPermissions(DefaultMemberPermissions.enabledFor(command.getPermissions()))
-                .addOptions(command.getOptions())
-                .addSubcommands(command.getSubcommandsData());
-            commandDataList.add(slashCommandData);
-            commandNames.add(command.getName());
-        }
-        for (Interaction<?> messageInteraction : messageInteractions) {
-            CommandData commandData = Commands.message(messageInteraction.getName());
-            commandDataList.add(commandData);
-            commandNames.add(messageInteraction.getName());
-        }
-        for (Interaction<?> userInteraction : userInteractions) {
-            CommandData commandData = Commands.user(userInteraction.getName());
-            commandDataList.add(commandData);
-            commandNames.add(userInteraction.getName());
+        List<CommandData> commandData = new ArrayList<>();
+        for (Component component : globalInstances) {
+            commandData.addAll(getCommandData(component, false));
         }
 
-        registerDefaultCommands(commandDataList).complete();
-        filterDefaultCommands(commandNames).queue();
+        DatabaseManager databaseManager = new DatabaseManager(GLOBAL_ID, COMPONENT);
+        syncCommands(databaseManager, jda.updateCommands(), commandData, false).complete();
     }
 
     public void setupGuildCommands(@NotNull Server server) {
-        retrieveGuildCommands(server.getId()).complete();
-        filterGuildCommands(server.getId(), server.getRegisteredCommands()).queue();
+        syncGuildCommands(server, false).complete();
     }
 
-    public RestAction<?> registerGuildCommands(String server, @NotNull Component component) {
-        List<CommandData> commandData = new ArrayList<>();
-
-        for (com.thefatrat.eddiejunior.entities.Command command : component.getCommands()) {
-            commandData.add(Commands.slash(command.getName(), command.getDescription())
-                .setDefaultPermissions(DefaultMemberPermissions.enabledFor(command.getPermissions()))
-                .addOptions(command.getOptions())
-                .addSubcommands(command.getSubcommandsData()));
-        }
-
-        for (Interaction<Message> interaction : component.getMessageInteractions()) {
-            commandData.add(Commands.message(interaction.getName())
-                .setDefaultPermissions(DefaultMemberPermissions.enabledFor(interaction.getPermissions()))
-                .setGuildOnly(true));
+    /**
+     * Overwrites the commands of a server with the commands of its enabled components, unless they are
+     * already up-to-date.
+     *
+     * @param server the server
+     * @param force  whether to overwrite the commands even if the fingerprint matches
+     * @return the action that updates the commands
+     */
+    @CheckReturnValue
+    public RestAction<?> syncGuildCommands(@NotNull Server server, boolean force) {
+        Guild guild = jda.getGuildById(server.getId());
+        if (guild == null) {
+            return new CompletedRestAction<>(jda, null);
         }
 
-        for (Interaction<Member> interaction : component.getMemberInteractions()) {
-            commandData.add(Commands.user(interaction.getName())
-                .setDefaultPermissions(DefaultMemberPermissions.enabledFor(interaction.getPermissions()))
-                .setGuildOnly(true));
+        List<CommandData> commandData = new ArrayList<>();
+        for (Component component : server.getComponents()) {
+            if (component.isEnabled() && !(component instanceof GlobalComponent)) {
+                commandData.addAll(getCommandData(component, true));
+            }
         }
 
-        return registerGuildCommands(server, commandData);
+        DatabaseManager databaseManager = new DatabaseManager(server.getId(), COMPONENT,
+            server.getServerSnapshot());
+        return syncCommands(databaseManager, guild.updateCommands(), commandData, force);
     }
 
     @CheckReturnValue
-    private @NotNull RestAction<Void> filterDefaultCommands(Collection<String> commands) {
-        List<RestAction<Void>> list = new ArrayList<>();
-        for (Map.Entry<String, Command> command : retrievedDefaultCommands.entrySet()) {
-            if (commands.contains(command.getKey())) {
-                continue;
-            }
-            list.add(jda.deleteCommandById(command.getValue().getId())
-                .onSuccess(v -> retrievedDefaultCommands.remove(command.getKey()))
-            );
-        }
-        if (list.isEmpty()) {
+    private @NotNull RestAction<?> syncCommands(@NotNull DatabaseManager databaseManager,
+        @NotNull CommandListUpdateAction action, @NotNull List<CommandData> commandData, boolean force) {
+
+        String fingerprint = getFingerprint(commandData);
+        if (!force && fingerprint.equals(databaseManager.getSetting(FINGERPRINT))) {
             return new CompletedRestAction<>(jda, null);
         }
-        return RestAction.allOf(list).map(l -> null);
+
+        return action.addCommands(commandData)
+            .onSuccess(list -> databaseManager.setSetting(FINGERPRINT, fingerprint));
     }
 
-    public RestAction<?> deregisterGuildCommands(String guildId, @NotNull Component component) {
-        List<RestAction<Void>> actions = new ArrayList<>();
+    @NotNull
+    private List<CommandData> getCommandData(@NotNull Component component, boolean guild) {
+        List<CommandData> commandData = new ArrayList<>();
 
         for (com.thefatrat.eddiejunior.entities.Command command : component.getCommands()) {
-            actions.add(removeGuildCommand(guildId, command.getName()));
+            commandData.add(Commands.slash(command.getName(), command.getDescription())
+                .setDefaultPermissions(DefaultMemberPermissions.enabledFor(command.getPermissions()))
+                .addOptions(command.getOptions())
+                .addSubcommands(command.getSubcommandsData()));
         }
 
         for (Interaction<Message> interaction : component.getMessageInteractions()) {
-            actions.add(removeGuildCommand(guildId, interaction.getName()));
-        }
-
-        for (Interaction<Member> interaction : component.getMemberInteractions()) {
-            actions.add(removeGuildCommand(guildId, interaction.getName()));
-        }
-
-        if (actions.isEmpty()) {
-            return new CompletedRestAction<>(jda, (Object) null);
-        }
-
-        return RestAction.allOf(actions);
-    }
-
-    @CheckReturnValue
-    private @NotNull RestAction<Void> filterGuildCommands(String id, Collection<String> commands) {
-        List<RestAction<Void>> list = new ArrayList<>();
-        Map<String, Command> map = retrievedGuildCommands.get(id);
-        Guild guild = jda.getGuildById(id);
-        if (map == null || map.isEmpty() || guild == null) {
-            return new CompletedRestAction<>(jda, null);
-        }
-        for (Map.Entry<String, Command> command : map.entrySet()) {
-            if (commands.contains(command.getKey())) {
-                continue;
+            CommandData data = Commands.message(interaction.getName());
+            if (guild) {
+                data.setDefaultPermissions(DefaultMemberPermissions.enabledFor(interaction.getPermissions()))
+                    .setGuildOnly(true);
             }
-            list.add(guild.deleteCommandById(command.getValue().getId())
-                .onSuccess(v -> retrievedGuildCommands.get(id).remove(command.getKey()))
-            );
-        }
-        if (list.isEmpty()) {
-            return new CompletedRestAction<>(jda, null);
+            commandData.add(data);
         }
-        return RestAction.allOf(list).map(l -> null);
-    }
 
-    @CheckReturnValue
-    private @NotNull RestAction<List<Command>> retrieveDefaultCommands() {
-        return jda.retrieveCommands()
-            .onSuccess(this::addRetrievedDefaultCommands);
-    }
-
-    private void addRetrievedDefaultCommands(@NotNull Collection<Command> commands) {
-        for (Command command : commands) {
-            addRetrievedDefaultCommand(command);
-        }
-    }
-
-    private void addRetrievedDefaultCommand(Command command) {
-        retrievedDefaultCommands.put(command.getName(), command);
-    }
-
-    @CheckReturnValue
-    private @NotNull RestAction<List<Command>> registerDefaultCommands(
-        @NotNull List<? extends CommandData> commandData) {
-
-        List<RestAction<Command>> actions = new ArrayList<>();
-        for (CommandData command : commandData) {
-            if (retrievedDefaultCommands.containsKey(command.getName())) {
-                continue;
+        for (Interaction<Member> interaction : component.getMemberInteractions()) {
+            CommandData data = Commands.user(interaction.getName());
+            if (guild) {
+                data.setDefaultPermissions(DefaultMemberPermissions.enabledFor(interaction.getPermissions()))
+                    .setGuildOnly(true);
             }
-            actions.add(jda.upsertCommand(command).onSuccess(this::addRetrievedDefaultCommand));
+            commandData.add(data);
         }
-        return actions.size() == 0 ? new CompletedRestAction<>(jda, List.of()) : RestAction.allOf(actions);
-    }
 
-    @CheckReturnValue
-    private @NotNull RestAction<List<Command>> retrieveGuildCommands(String id) {
-        Guild guild = Objects.requireNonNull(jda.getGuildById(id));
-        return guild.retrieveCommands()
-            .onSuccess(list -> addRetrievedServerCommands(id, list));
+        return commandData;
     }
 
-    private void addRetrievedServerCommands(String id, @NotNull Collection<Command> commands) {
-        for (Command command : commands) {
-            addRetrievedServerCommand(id, command);
+    /**
+     * Hashes a set of commands. The order of the commands does not matter.
+     *
+     * @param commandData the commands
+     * @return the hex encoded fingerprint
+     */
+    @NotNull
+    private static String getFingerprint(@NotNull Collection<CommandData> commandData) {
+        List<String> serialized = new ArrayList<>(commandData.size());
+        for (CommandData data : commandData) {
+            serialized.add(data.toData().toString());
         }
-    }
+        Collections.sort(serialized);
 
-    private void addRetrievedServerCommand(String id, Command command) {
-        retrievedGuildCommands.computeIfAbsent(id, k -> new HashMap<>()).put(command.getName(), command);
-    }
-
-    @CheckReturnValue
-    private @NotNull RestAction<List<Command>> registerGuildCommands(String guildId,
-        @NotNull List<? extends CommandData> commandData) {
-
-        Map<String, Command> map = retrievedGuildCommands.computeIfAbsent(guildId, k -> new HashMap<>());
-        Guild guild = Objects.requireNonNull(jda.getGuildById(guildId));
-        List<RestAction<Command>> actions = new ArrayList<>();
-        for (CommandData command : commandData) {
-            if (map.containsKey(command.getName())) {
-                break;
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (String string : serialized) {
+                digest.update(string.getBytes(StandardCharsets.UTF_8));
+                digest.update((byte) 0);
             }
-            actions.add(guild.upsertCommand(command).onSuccess(c -> this.addRetrievedServerCommand(guildId, c)));
-        }
-        return actions.size() == 0 ? new CompletedRestAction<>(jda, List.of()) : RestAction.allOf(actions);
-    }
-
-    @CheckReturnValue
-    private @NotNull RestAction<Void> removeGuildCommand(String id, String name) {
-        Guild guild = Objects.requireNonNull(jda.getGuildById(id));
-        Command command = retrievedGuildCommands.computeIfAbsent(id, k -> new HashMap<>()).get(name);
-        if (command == null) {
-            return new CompletedRestAction<>(jda, null);
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
         }
-        return guild.deleteCommandById(command.getId()).onSuccess(c -> retrievedGuildCommands.get(id).remove(name));
     }
 
 }
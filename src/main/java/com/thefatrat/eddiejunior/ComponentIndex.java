@@ -0,0 +1,55 @@
+package com.thefatrat.eddiejunior;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * In-memory index of which components are enabled in which server. Every component name is assigned a bit,
+ * so the enabled components of a server are stored as a single {@code long}.
+ */
+class ComponentIndex {
+
+    private final Map<String, Integer> bits = new ConcurrentHashMap<>();
+    private final Map<String, Long> enabled = new ConcurrentHashMap<>();
+
+    private synchronized int getBit(@NotNull String componentId) {
+        return bits.computeIfAbsent(componentId, k -> {
+            if (bits.size() >= Long.SIZE) {
+                throw new IllegalStateException("Too many components to index");
+            }
+            return bits.size();
+        });
+    }
+
+    /**
+     * @param serverId    the server id
+     * @param componentId the component id
+     * @return whether the component is enabled in the server
+     */
+    public boolean isEnabled(@NotNull String serverId, @NotNull String componentId) {
+        Integer bit = bits.get(componentId);
+        if (bit == null) {
+            return false;
+        }
+        return (enabled.getOrDefault(serverId, 0L) & (1L << bit)) != 0;
+    }
+
+    /**
+     * Sets whether a component is enabled in a server.
+     *
+     * @param serverId    the server id
+     * @param componentId the component id
+     * @param enable      whether the component is enabled
+     */
+    public void setEnabled(@NotNull String serverId, @NotNull String componentId, boolean enable) {
+        long mask = 1L << getBit(componentId);
+        enabled.compute(serverId, (k, v) -> {
+            long value = v == null ? 0L : v;
+            value = enable ? value | mask : value & ~mask;
+            return value == 0L ? null : value;
+        });
+    }
+
+}
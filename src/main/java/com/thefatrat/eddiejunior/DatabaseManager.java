@@ -1,218 +1,496 @@
 package com.thefatrat.eddiejunior;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.pascalnb.dbwrapper.Mapper;
-import com.pascalnb.dbwrapper.Query;
 import com.pascalnb.dbwrapper.StringMapper;
-import com.pascalnb.dbwrapper.action.CompletedAction;
-import com.pascalnb.dbwrapper.action.DatabaseAction;
 import com.thefatrat.eddiejunior.components.impl.FaqComponent;
 import com.thefatrat.eddiejunior.components.impl.PollComponent;
-import com.thefatrat.eddiejunior.util.ObjectMapperProvider;
+import com.thefatrat.eddiejunior.storage.Storage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
+/**
+ * Reads and writes the stored state of a component in a server. Every write has an asynchronous counterpart
+ * ending in {@code Async}, which runs the storage call on the {@link StorageExecutor} instead of the calling
+ * thread. Reads of the state have none: components read it while their server loads, on a bootstrap thread
+ * and from the server snapshot, so no event thread waits for them.
+ */
 public class DatabaseManager {
 
-    private static final Query GET_COMPONENT_ENABLED = new Query(
-        "SELECT enabled FROM component WHERE server_id=? AND component_name=?;");
+    private static final Storage storage = Storage.fromConfig();
+    private static final ComponentIndex componentIndex = new ComponentIndex();
+    private static volatile boolean componentIndexLoaded = false;
 
-    private static final Query TOGGLE_COMPONENT = new Query(
-        "INSERT INTO component (server_id,component_name,enabled) VALUES(?,?,?) " +
-            "ON DUPLICATE KEY UPDATE enabled=?;");
+    private final String server;
+    private final String component;
+    @Nullable
+    private final ServerSnapshot snapshot;
 
-    private static final Query GET_SETTINGS = new Query(
-        "SELECT value FROM setting WHERE server_id=? AND component_name=? AND name=?;");
+    public DatabaseManager(String server, String component) {
+        this(server, component, null);
+    }
 
-    private static final Query ADD_SETTING = new Query(
-        "INSERT INTO setting (server_id,component_name,name,value) VALUES(?,?,?,?);");
+    public DatabaseManager(String server, String component, @Nullable ServerSnapshot snapshot) {
+        this.server = server;
+        this.component = component;
+        this.snapshot = snapshot;
+    }
 
-    private static final Query REMOVE_SETTING = new Query(
-        "DELETE FROM setting WHERE server_id=? AND component_name=? AND name=?;");
+    /**
+     * @return the storage the state of the bot is kept in
+     */
+    @NotNull
+    static Storage getStorage() {
+        return storage;
+    }
 
-    private static final Query REMOVE_SETTING_VALUE = new Query(
-        "DELETE FROM setting WHERE server_id=? AND component_name=? AND name=? AND value=?;");
+    /**
+     * @return whether the storage can be reached
+     */
+    public static boolean ping() {
+        return storage.ping();
+    }
 
-    public static final Query GET_QUESTIONS = new Query(
-        "SELECT * FROM faq WHERE server_id=?;"
-    );
-    private static final Query REMOVE_QUESTION = new Query(
-        "DELETE FROM faq WHERE server_id=? AND q_number=?;"
-    );
+    /**
+     * Makes sure the storage has all tables, creating the ones that are missing where possible.
+     *
+     * @throws com.thefatrat.eddiejunior.storage.StorageException when a table is missing
+     */
+    static void checkSchema() {
+        storage.checkSchema();
+    }
 
-    public static final Query SET_QUESTION = new Query(
-        "INSERT INTO faq (server_id,q_number,value) VALUES(?,?,?) ON DUPLICATE KEY UPDATE value=?;"
-    );
+    /**
+     * Closes the storage. Called last on shutdown, once all pending writes are done.
+     */
+    static void close() {
+        storage.close();
+    }
 
-    public static final Query GET_POLLS = new Query(
-        "SELECT * FROM poll WHERE server_id=?;"
-    );
+    /**
+     * @return a future of whether the storage can be reached
+     */
+    public static CompletableFuture<Boolean> pingAsync() {
+        return StorageExecutor.getInstance().read(DatabaseManager::ping);
+    }
 
-    public static final Query SET_POLL = new Query(
-        "INSERT INTO poll (server_id,poll_id,value) VALUES(?,?,?) ON DUPLICATE KEY UPDATE value=?;"
-    );
+    /**
+     * Loads all settings of a server with a single query.
+     *
+     * @param serverId the server id
+     * @return a snapshot of the settings of the server
+     */
+    public static ServerSnapshot getServerSnapshot(String serverId) {
+        ServerSnapshot snapshot = new ServerSnapshot();
+        storage.getSettings(serverId)
+            .forEach(setting -> snapshot.add(setting.component(), setting.name(), setting.value()));
+        return snapshot;
+    }
 
-    public static final Query REMOVE_POLL = new Query(
-        "DELETE FROM poll WHERE server_id=? AND poll_id=?;"
-    );
+    /**
+     * Loads all stored state of a server: its enabled components, settings, questions and polls.
+     *
+     * @param serverId the server id
+     * @return a snapshot of the server
+     */
+    public static ServerSnapshot getFullServerSnapshot(String serverId) {
+        ServerSnapshot snapshot = getServerSnapshot(serverId);
+        snapshot.setEnabledComponents(storage.getEnabledComponents(serverId));
+        snapshot.setQuestions(storage.getQuestions(serverId));
+        Map<String, String> polls = new HashMap<>(storage.getPolls(serverId));
+        Map<String, List<PollComponent.Vote>> votes = new HashMap<>();
+        storage.getPollVotes(serverId).forEach(vote -> votes.computeIfAbsent(vote.poll(), k -> new ArrayList<>())
+            .add(toVote(vote)));
+        foldVotes(polls, votes);
+        snapshot.setPolls(polls);
+        return snapshot;
+    }
 
-    private final String server;
-    private final String component;
+    /**
+     * Loads all stored state of the given servers, using a single query per table.
+     *
+     * @param serverIds the server ids
+     * @return the snapshots by server id
+     */
+    public static Map<String, ServerSnapshot> getFullServerSnapshots(@NotNull Collection<String> serverIds) {
+        Map<String, ServerSnapshot> snapshots = new HashMap<>();
+        for (String serverId : serverIds) {
+            ServerSnapshot snapshot = new ServerSnapshot();
+            snapshot.setEnabledComponents(new HashSet<>());
+            snapshot.setQuestions(new HashMap<>());
+            snapshot.setPolls(new HashMap<>());
+            snapshots.put(serverId, snapshot);
+        }
 
-    public DatabaseManager(String server, String component) {
-        this.server = server;
-        this.component = component;
+        storage.getEnabledComponents().forEach((serverId, components) -> {
+            ServerSnapshot snapshot = snapshots.get(serverId);
+            if (snapshot != null) {
+                Objects.requireNonNull(snapshot.getEnabledComponents()).addAll(components);
+            }
+        });
+        storage.getAllSettings().forEach(setting -> {
+            ServerSnapshot snapshot = snapshots.get(setting.server());
+            if (snapshot != null) {
+                snapshot.add(setting.component(), setting.name(), setting.value());
+            }
+        });
+        storage.getAllQuestions().forEach((serverId, questions) -> {
+            ServerSnapshot snapshot = snapshots.get(serverId);
+            if (snapshot != null) {
+                Objects.requireNonNull(snapshot.getQuestions()).putAll(questions);
+            }
+        });
+        storage.getAllPolls().forEach((serverId, polls) -> {
+            ServerSnapshot snapshot = snapshots.get(serverId);
+            if (snapshot != null) {
+                Objects.requireNonNull(snapshot.getPolls()).putAll(polls);
+            }
+        });
+        Map<String, Map<String, List<PollComponent.Vote>>> votes = new HashMap<>();
+        storage.getAllPollVotes().forEach(vote -> votes.computeIfAbsent(vote.server(), k -> new HashMap<>())
+            .computeIfAbsent(vote.poll(), k -> new ArrayList<>())
+            .add(toVote(vote)));
+        votes.forEach((serverId, serverVotes) -> {
+            ServerSnapshot snapshot = snapshots.get(serverId);
+            if (snapshot != null) {
+                foldVotes(Objects.requireNonNull(snapshot.getPolls()), serverVotes);
+            }
+        });
+
+        return snapshots;
+    }
+
+    /**
+     * Looks up the values of a setting in the settings cache of the server. On a miss, they are read from the
+     * snapshot if it can still answer for the setting, or from the database otherwise, and cached. Changes that
+     * have not been written yet are applied on top of the stored values.
+     *
+     * @return the values, which may be empty
+     */
+    @NotNull
+    private List<String> getValues(String setting) {
+        SettingsCache cache = SettingsCache.of(server);
+        List<String> values = cache.get(component, setting);
+        if (values != null) {
+            return values;
+        }
+
+        long generation = cache.getGeneration();
+        List<String> stored = snapshot == null ? null : snapshot.get(component, setting);
+        if (stored == null) {
+            stored = storage.getSettingValues(server, component, setting);
+        }
+        return cache(cache, setting, stored, generation);
+    }
+
+    @NotNull
+    private List<String> cache(SettingsCache cache, String setting, List<String> stored, long generation) {
+        List<String> values = SettingsWriter.getInstance().overlay(server, component, setting, stored);
+        cache.put(component, setting, values, generation);
+        return values;
+    }
+
+    private void afterWrite(String setting) {
+        SettingsWriter writer = SettingsWriter.getInstance();
+        SettingsCache.of(server).update(component, setting,
+            values -> writer.overlay(server, component, setting, values));
+        if (snapshot != null) {
+            snapshot.invalidate(component, setting);
+        }
     }
 
     public Map<String, StringMapper> getAll(@NotNull Collection<String> settings) {
-        List<DatabaseAction<Object[]>> actions = new ArrayList<>(settings.size());
+        SettingsCache cache = SettingsCache.of(server);
+        long generation = cache.getGeneration();
+        Map<String, StringMapper> result = new HashMap<>();
+        List<String> missing = new ArrayList<>();
         for (String setting : settings) {
-            actions.add(
-                DatabaseAction.of(GET_SETTINGS.withArgs(server, component, setting),
-                    table -> table.isEmpty()
-                        ? new Object[]{setting, new StringMapper(null)}
-                        : new Object[]{setting, new StringMapper(table.get(0).get(0))}
-                )
-            );
-        }
-        return DatabaseAction.allOf(actions)
-            .query(list -> {
-                Map<String, StringMapper> map = new HashMap<>();
-                for (Object[] pair : list) {
-                    map.put((String) pair[0], (StringMapper) pair[1]);
+            List<String> values = cache.get(component, setting);
+            if (values == null && snapshot != null) {
+                List<String> stored = snapshot.get(component, setting);
+                if (stored != null) {
+                    values = cache(cache, setting, stored, generation);
                 }
-                return map;
-            })
-            .complete();
+            }
+            if (values != null) {
+                result.put(setting, new StringMapper(values.isEmpty() ? null : values.get(0)));
+            } else {
+                missing.add(setting);
+            }
+        }
+        if (missing.isEmpty()) {
+            return result;
+        }
+        storage.getSettingValues(server, component, missing).forEach((setting, stored) -> {
+            List<String> values = cache(cache, setting, stored, generation);
+            result.put(setting, new StringMapper(values.isEmpty() ? null : values.get(0)));
+        });
+        return result;
     }
 
-    public CompletedAction<Void> removeSetting(String setting) {
-        return DatabaseAction.of(REMOVE_SETTING.withArgs(server, component, setting)).execute();
+    public CompletableFuture<Void> removeSetting(String setting) {
+        CompletableFuture<Void> future = SettingsWriter.getInstance().remove(server, component, setting);
+        afterWrite(setting);
+        return future;
     }
 
-    public CompletedAction<Void> removeSetting(String setting, @NotNull String value) {
-        return DatabaseAction.of(REMOVE_SETTING_VALUE.withArgs(server, component, setting, value)).execute();
+    public CompletableFuture<Void> removeSetting(String setting, @NotNull String value) {
+        CompletableFuture<Void> future = SettingsWriter.getInstance().remove(server, component, setting, value);
+        afterWrite(setting);
+        return future;
     }
 
-    public CompletedAction<Void> setSetting(String setting, @NotNull Object value) {
-        return DatabaseAction.allOf(
-            DatabaseAction.of(REMOVE_SETTING.withArgs(server, component, setting)),
-            DatabaseAction.of(ADD_SETTING.withArgs(server, component, setting, value))
-        ).execute();
+    /**
+     * Replaces the values of a setting. The change is written behind by the {@link SettingsWriter}, but is
+     * visible to reads immediately.
+     *
+     * @return a future that completes once the change has been written to the database
+     */
+    public CompletableFuture<Void> setSetting(String setting, @NotNull Object value) {
+        CompletableFuture<Void> future = SettingsWriter.getInstance()
+            .set(server, component, setting, String.valueOf(value));
+        afterWrite(setting);
+        return future;
     }
 
-    public CompletedAction<Void> addSetting(String setting, String value) {
-        return DatabaseAction.of(ADD_SETTING.withArgs(server, component, setting, value)).execute();
+    public CompletableFuture<Void> addSetting(String setting, String value) {
+        CompletableFuture<Void> future = SettingsWriter.getInstance().add(server, component, setting, value);
+        afterWrite(setting);
+        return future;
     }
 
     public String getSetting(String setting) {
-        return DatabaseAction.of(GET_SETTINGS.withArgs(server, component, setting))
-            .query(Mapper.stringValue())
-            .complete();
+        List<String> values = getValues(setting);
+        return values.isEmpty() ? null : values.get(0);
     }
 
-    @SuppressWarnings("unchecked")
     public <T> T getSettingOrDefault(String setting, @NotNull T defaultValue) {
-        return (T) DatabaseAction.of(GET_SETTINGS.withArgs(server, component, setting))
-            .query(Mapper.toPrimitive(defaultValue.getClass()).orDefault(defaultValue))
-            .complete();
+        List<String> values = getValues(setting);
+        return values.isEmpty() ? defaultValue : new StringMapper(values.get(0)).asOrDefault(defaultValue);
     }
 
     public List<String> getSettings(String setting) {
-        return DatabaseAction.of(
-                GET_SETTINGS.withArgs(server, component, setting),
-                Mapper.stringList()
-            )
-            .query()
-            .complete();
+        return new ArrayList<>(getValues(setting));
+    }
+
+    /**
+     * Loads the enabled state of all components in all servers with a single query. This happens
+     * automatically on the first lookup.
+     */
+    public static synchronized void loadComponentIndex() {
+        if (componentIndexLoaded) {
+            return;
+        }
+
+        storage.getEnabledComponents().forEach((serverId, components) ->
+            components.forEach(component -> componentIndex.setEnabled(serverId, component, true)));
+        componentIndexLoaded = true;
     }
 
     public static boolean isComponentEnabled(String serverId, String componentId) {
-        return DatabaseAction.of(GET_COMPONENT_ENABLED.withArgs(serverId, componentId))
-            .query(table -> !table.isEmpty() && "1".equals(table.get(0).get(0)))
-            .complete();
+        if (!componentIndexLoaded) {
+            loadComponentIndex();
+        }
+        return componentIndex.isEnabled(serverId, componentId);
     }
 
-    public static CompletedAction<Void> toggleComponent(String serverId, String componentId, boolean enable) {
-        return DatabaseAction.of(TOGGLE_COMPONENT.withArgs(serverId, componentId, enable, enable)).execute();
+    public static void toggleComponent(String serverId, String componentId, boolean enable) {
+        componentIndex.setEnabled(serverId, componentId, enable);
+        storage.setComponentEnabled(serverId, componentId, enable);
+    }
+
+    /**
+     * Enables or disables a component. The component index is updated immediately, and the storage once the
+     * returned future completes.
+     */
+    public static CompletableFuture<Void> toggleComponentAsync(String serverId, String componentId,
+        boolean enable) {
+        componentIndex.setEnabled(serverId, componentId, enable);
+        return StorageExecutor.getInstance().write(serverId, () -> {
+            storage.setComponentEnabled(serverId, componentId, enable);
+            return null;
+        });
     }
 
     public List<FaqComponent.Question> getQuestions() {
-        return DatabaseAction.of(
-                GET_QUESTIONS.withArgs(server),
-                Mapper.stream()
-            )
-            .query()
-            .map(stream -> stream
-                .map(tuple -> {
-                    int id = Integer.parseInt(tuple.get("q_number"));
-                    String json = tuple.get("value");
-                    return FaqComponent.Question.fromJson(id, json);
-                })
-                .toList()
-            )
-            .complete();
-    }
-
-    public CompletedAction<Void> removeQuestion(int id) {
-        return DatabaseAction.of(
-            REMOVE_QUESTION.withArgs(server, id)
-        ).execute();
-    }
-
-    public CompletedAction<Void> setQuestion(int id, String json) {
-        return DatabaseAction.of(
-            SET_QUESTION.withArgs(server, id, json, json)
-        ).execute();
+        Map<Integer, String> questions = snapshot == null ? null : snapshot.getQuestions();
+        if (questions == null) {
+            questions = storage.getQuestions(server);
+        }
+        List<FaqComponent.Question> result = new ArrayList<>(questions.size());
+        questions.forEach((id, value) -> result.add(FaqComponent.Question.decode(id, value)));
+        return result;
     }
 
+    public void removeQuestion(int id) {
+        storage.removeQuestion(server, id);
+    }
+
+    public CompletableFuture<Void> removeQuestionAsync(int id) {
+        return write(() -> removeQuestion(id));
+    }
+
+    public void setQuestion(int id, String json) {
+        storage.setQuestion(server, id, json);
+    }
+
+    public CompletableFuture<Void> setQuestionAsync(int id, String json) {
+        return write(() -> setQuestion(id, json));
+    }
+
+    @NotNull
+    private CompletableFuture<Void> write(@NotNull Runnable write) {
+        return StorageExecutor.getInstance().write(server, () -> {
+            write.run();
+            return null;
+        });
+    }
+
+    /**
+     * Loads the polls of the server. Polls in a snapshot already have their logged votes folded in; polls read
+     * from the database are rebuilt from their last compacted document and the votes logged since.
+     */
     public Map<String, PollComponent.Poll> getPolls() {
-        return DatabaseAction.of(
-                GET_POLLS.withArgs(server),
-                Mapper.stream()
-            )
-            .query()
-            .map(stream -> stream
-                .flatMap(tuple -> {
-                    String value = tuple.get("value");
-                    try {
-                        PollComponent.Poll poll = ObjectMapperProvider.OBJECT_MAPPER
-                            .readValue(value, PollComponent.Poll.class);
-                        return Stream.of(Map.entry(tuple.get("poll_id"), poll));
-                    } catch (JsonProcessingException e) {
-                        e.printStackTrace();
-                        return Stream.empty();
-                    }
-                })
+        Map<String, String> snapshotPolls = snapshot == null ? null : snapshot.getPolls();
+        if (snapshotPolls != null) {
+            return snapshotPolls.entrySet().stream()
+                .flatMap(entry -> parsePoll(entry.getKey(), entry.getValue()))
                 .collect(Collectors.toMap(
                     Map.Entry::getKey,
                     Map.Entry::getValue
-                ))
-            )
-            .complete();
+                ));
+        }
+
+        Map<String, PollComponent.Poll> polls = storage.getPolls(server).entrySet().stream()
+            .flatMap(entry -> parsePoll(entry.getKey(), entry.getValue()))
+            .collect(Collectors.toMap(
+                Map.Entry::getKey,
+                Map.Entry::getValue
+            ));
+
+        storage.getPollVotes(server).forEach(vote -> {
+            PollComponent.Poll poll = polls.get(vote.poll());
+            if (poll != null) {
+                poll.apply(toVote(vote));
+            }
+        });
+
+        return polls;
+    }
+
+    @NotNull
+    private static PollComponent.Vote toVote(@NotNull Storage.PollVote vote) {
+        return new PollComponent.Vote(vote.sequence(), vote.user(), vote.choice(), vote.replace());
+    }
+
+    /**
+     * Applies logged votes to the stored documents of polls.
+     *
+     * @param polls the documents by poll id, which are replaced
+     * @param votes the logged votes by poll id, in order
+     */
+    private static void foldVotes(@NotNull Map<String, String> polls,
+        @NotNull Map<String, List<PollComponent.Vote>> votes) {
+        votes.forEach((pollId, pollVotes) -> {
+            String value = polls.get(pollId);
+            if (value == null) {
+                return;
+            }
+            parsePoll(pollId, value).findFirst().ifPresent(entry -> {
+                PollComponent.Poll poll = entry.getValue();
+                pollVotes.forEach(poll::apply);
+                String folded = encode(poll);
+                if (folded != null) {
+                    polls.put(pollId, folded);
+                }
+            });
+        });
     }
 
-    public CompletedAction<Void> setPoll(PollComponent.Poll poll) {
+    private static Stream<Map.Entry<String, PollComponent.Poll>> parsePoll(String id, String value) {
         try {
-            String value = ObjectMapperProvider.OBJECT_MAPPER.writeValueAsString(poll);
-            return DatabaseAction.of(
-                    SET_POLL.withArgs(server, poll.getId(), value, value)
-                )
-                .execute();
-        } catch (JsonProcessingException e) {
+            return Stream.of(Map.entry(id, PollComponent.Poll.CODEC.decode(value)));
+        } catch (IllegalArgumentException e) {
+            e.printStackTrace();
+            return Stream.empty();
+        }
+    }
+
+    /**
+     * Serializes a poll on the calling thread, so that later changes to the poll are not included.
+     *
+     * @return the document, or {@code null} if the poll could not be serialized
+     */
+    @Nullable
+    private static String encode(@NotNull PollComponent.Poll poll) {
+        try {
+            return PollComponent.Poll.CODEC.encode(poll);
+        } catch (RuntimeException e) {
             e.printStackTrace();
             return null;
         }
     }
 
-    public CompletedAction<Void> removePoll(PollComponent.Poll poll) {
-        return DatabaseAction.of(
-                REMOVE_POLL.withArgs(server, poll.getId())
-            )
-            .execute();
+    public void setPoll(PollComponent.Poll poll) {
+        String value = encode(poll);
+        if (value != null) {
+            storage.setPoll(server, poll.getId(), value);
+        }
+    }
+
+    public CompletableFuture<Void> setPollAsync(PollComponent.Poll poll) {
+        String value = encode(poll);
+        if (value == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return write(() -> storage.setPoll(server, poll.getId(), value));
+    }
+
+    /**
+     * Appends a vote to the vote log of a poll.
+     *
+     * @param poll the poll
+     * @param vote the vote
+     */
+    public void addPollVote(PollComponent.Poll poll, PollComponent.Vote vote) {
+        storage.addPollVote(new Storage.PollVote(server, poll.getId(), vote.sequence(), vote.user(), vote.choice(),
+            vote.replace()));
+    }
+
+    public CompletableFuture<Void> addPollVoteAsync(PollComponent.Poll poll, PollComponent.Vote vote) {
+        return write(() -> addPollVote(poll, vote));
+    }
+
+    /**
+     * Writes the document of a poll, and removes the logged votes that it now contains.
+     *
+     * @param poll the poll, after {@link PollComponent.Poll#compact()}
+     */
+    public void compactPoll(PollComponent.Poll poll) {
+        String value = encode(poll);
+        if (value != null) {
+            storage.compactPoll(server, poll.getId(), value, poll.getCompactedSequence());
+        }
+    }
+
+    public CompletableFuture<Void> compactPollAsync(PollComponent.Poll poll) {
+        String value = encode(poll);
+        if (value == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        long sequence = poll.getCompactedSequence();
+        return write(() -> storage.compactPoll(server, poll.getId(), value, sequence));
+    }
+
+    public void removePoll(PollComponent.Poll poll) {
+        storage.removePoll(server, poll.getId());
+    }
+
+    public CompletableFuture<Void> removePollAsync(PollComponent.Poll poll) {
+        return write(() -> removePoll(poll));
     }
 
 }
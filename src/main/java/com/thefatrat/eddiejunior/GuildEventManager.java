@@ -0,0 +1,169 @@
+package com.thefatrat.eddiejunior;
+
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.events.GenericEvent;
+import net.dv8tion.jda.api.events.channel.GenericChannelEvent;
+import net.dv8tion.jda.api.events.guild.GenericGuildEvent;
+import net.dv8tion.jda.api.events.interaction.GenericInteractionCreateEvent;
+import net.dv8tion.jda.api.events.message.GenericMessageEvent;
+import net.dv8tion.jda.api.events.role.GenericRoleEvent;
+import net.dv8tion.jda.api.hooks.InterfacedEventManager;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Event manager that hands events off the gateway thread to a pool of worker threads. Every guild has its
+ * own mailbox, whose events and tasks are run one at a time and in order, so that the state of a server is
+ * only ever touched by one thread at a time while different guilds are handled in parallel. Events from
+ * direct messages get a mailbox per channel, and all other events share a single global mailbox.
+ * <p>
+ * Mailboxes are created when a task arrives and discarded once they run empty.
+ */
+public class GuildEventManager extends InterfacedEventManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(GuildEventManager.class);
+    private static final String GLOBAL_KEY = "global";
+    private static final int BATCH_SIZE = 16;
+
+    private final Map<String, Mailbox> mailboxes = new ConcurrentHashMap<>();
+    private final ExecutorService executor;
+
+    public GuildEventManager(int parallelism) {
+        AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory factory = runnable -> {
+            Thread thread = new Thread(runnable, "event-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.executor = Executors.newFixedThreadPool(Math.max(1, parallelism), factory);
+    }
+
+    /**
+     * Reads the number of event threads from the {@code event_threads} property.
+     *
+     * @return the configured parallelism, or the number of processors if the property is absent or invalid
+     */
+    public static int getConfiguredParallelism() {
+        int processors = Runtime.getRuntime().availableProcessors();
+        String property = Initializer.getInstance().getProperty("event_threads");
+        if (property == null) {
+            return processors;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(property.strip()));
+        } catch (NumberFormatException e) {
+            return processors;
+        }
+    }
+
+    @Override
+    public void handle(@NotNull GenericEvent event) {
+        execute(getKey(event), () -> super.handle(event));
+    }
+
+    /**
+     * Runs a task in the mailbox of a guild, after all events and tasks that were queued for it before.
+     *
+     * @param guildId the guild id
+     * @param task    the task
+     */
+    public void execute(@NotNull String guildId, @NotNull Runnable task) {
+        mailboxes.compute(guildId, (key, mailbox) -> {
+            if (mailbox == null) {
+                mailbox = new Mailbox(key);
+            }
+            mailbox.queue.add(task);
+            if (!mailbox.scheduled) {
+                mailbox.scheduled = true;
+                executor.execute(mailbox);
+            }
+            return mailbox;
+        });
+    }
+
+    @NotNull
+    private static String getKey(@NotNull GenericEvent event) {
+        Guild guild = null;
+
+        if (event instanceof GenericGuildEvent guildEvent) {
+            guild = guildEvent.getGuild();
+        } else if (event instanceof GenericInteractionCreateEvent interactionEvent) {
+            if (!interactionEvent.isFromGuild()) {
+                return "dm-" + interactionEvent.getChannelIdLong();
+            }
+            guild = interactionEvent.getGuild();
+        } else if (event instanceof GenericMessageEvent messageEvent) {
+            if (!messageEvent.isFromGuild()) {
+                return "dm-" + messageEvent.getChannel().getIdLong();
+            }
+            guild = messageEvent.getGuild();
+        } else if (event instanceof GenericChannelEvent channelEvent && channelEvent.isFromGuild()) {
+            guild = channelEvent.getGuild();
+        } else if (event instanceof GenericRoleEvent roleEvent) {
+            guild = roleEvent.getGuild();
+        }
+
+        return guild == null ? GLOBAL_KEY : guild.getId();
+    }
+
+    private class Mailbox implements Runnable {
+
+        private final String key;
+        private final Queue<Runnable> queue = new ArrayDeque<>();
+        private boolean scheduled = false;
+
+        private Mailbox(String key) {
+            this.key = key;
+        }
+
+        @Override
+        public void run() {
+            for (int i = 0; i < BATCH_SIZE; i++) {
+                Runnable task = poll();
+                if (task == null) {
+                    return;
+                }
+                try {
+                    task.run();
+                } catch (RuntimeException e) {
+                    LOGGER.error("Uncaught exception in mailbox {}", key, e);
+                }
+            }
+
+            // give other mailboxes a turn before continuing
+            mailboxes.compute(key, (k, mailbox) -> {
+                if (queue.isEmpty()) {
+                    scheduled = false;
+                    return null;
+                }
+                executor.execute(this);
+                return this;
+            });
+        }
+
+        private Runnable poll() {
+            Runnable[] task = new Runnable[1];
+            mailboxes.compute(key, (k, mailbox) -> {
+                task[0] = queue.poll();
+                if (task[0] == null) {
+                    scheduled = false;
+                    return null;
+                }
+                return this;
+            });
+            return task[0];
+        }
+
+    }
+
+}
@@ -3,6 +3,7 @@ package com.thefatrat.eddiejunior;
 import com.thefatrat.eddiejunior.events.*;
 import com.thefatrat.eddiejunior.handlers.MapHandler;
 import com.thefatrat.eddiejunior.handlers.PermissionMapHandler;
+import com.thefatrat.eddiejunior.handlers.PrefixHandler;
 import com.thefatrat.eddiejunior.handlers.SetHandler;
 import com.thefatrat.eddiejunior.reply.DefaultReply;
 import com.thefatrat.eddiejunior.reply.InteractionReply;
@@ -18,8 +19,7 @@ public class HandlerCollection<V> {
     private PermissionMapHandler<InteractionEvent<Message>, InteractionReply> messageInteractionHandler;
     private PermissionMapHandler<InteractionEvent<Member>, InteractionReply> memberInteractionHandler;
     private SetHandler<ArchiveEvent, Void> archiveHandler;
-    private SetHandler<ButtonEvent<V>, MenuReply> buttonHandler;
-    private MapHandler<ButtonEvent<V>, MenuReply> buttonMapHandler;
+    private PrefixHandler<ButtonEvent<V>, MenuReply> buttonHandler;
     private MapHandler<ModalEvent, DefaultReply> modalHandler;
     private SetHandler<EventEvent, Void> eventHandler;
     private MapHandler<SelectEvent<SelectOption>, MenuReply> stringSelectHandler;
@@ -54,20 +54,13 @@ public class HandlerCollection<V> {
         return archiveHandler;
     }
 
-    public SetHandler<ButtonEvent<V>, MenuReply> getButtonHandler() {
+    public PrefixHandler<ButtonEvent<V>, MenuReply> getButtonHandler() {
         if (buttonHandler == null) {
-            buttonHandler = new SetHandler<>();
+            buttonHandler = new PrefixHandler<>();
         }
         return buttonHandler;
     }
 
-    public MapHandler<ButtonEvent<V>, MenuReply> getButtonMapHandler() {
-        if (buttonMapHandler == null) {
-            buttonMapHandler = new MapHandler<>();
-        }
-        return buttonMapHandler;
-    }
-
     public MapHandler<ModalEvent, DefaultReply> getModalHandler() {
         if (modalHandler == null) {
             modalHandler = new MapHandler<>();
@@ -11,6 +11,7 @@ import net.dv8tion.jda.api.utils.cache.CacheFlag;
 
 import java.io.*;
 import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
 public class Initializer {
 
@@ -47,6 +48,10 @@ public class Initializer {
         final String token = getInstance().getProperty("bot_token");
         final String logFilePath = getInstance().getProperty("log_file");
         final JDA jda;
+        final WarmStartManager warmStartManager = WarmStartManager.fromConfig();
+
+        // fail before connecting rather than losing writes to a table that does not exist
+        DatabaseManager.checkSchema();
 
         Bot.getInstance().setComponents(
             ManagerComponent.class,
@@ -65,6 +70,22 @@ public class Initializer {
             NicknameComponent.class
         );
 
+        if (warmStartManager != null) {
+            warmStartManager.load();
+            Bot.getInstance().setWarmStartManager(warmStartManager);
+        }
+
+        // pending settings must be written before the warm start snapshot reads them back,
+        // and the storage is closed only after both
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            SettingsWriter.getInstance().flush();
+            StorageExecutor.getInstance().shutdown(10, TimeUnit.SECONDS);
+            if (warmStartManager != null) {
+                warmStartManager.save(Bot.getInstance().getServerIds());
+            }
+            DatabaseManager.close();
+        }));
+
         jda = JDABuilder.createLight(token,
                 GatewayIntent.DIRECT_MESSAGES,
                 GatewayIntent.GUILD_MEMBERS,
@@ -76,6 +97,7 @@ public class Initializer {
             .enableCache(CacheFlag.VOICE_STATE, CacheFlag.MEMBER_OVERRIDES, CacheFlag.SCHEDULED_EVENTS,
                 CacheFlag.ROLE_TAGS)
             .setRawEventsEnabled(false)
+            .setEventManager(Bot.getInstance().getEventManager())
             .addEventListeners(Bot.getInstance())
             .build();
 
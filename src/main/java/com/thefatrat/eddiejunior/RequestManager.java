@@ -1,38 +1,121 @@
 package com.thefatrat.eddiejunior;
 
 import com.thefatrat.eddiejunior.exceptions.BotErrorException;
+import com.thefatrat.eddiejunior.util.ExpiringCache;
 import com.thefatrat.eddiejunior.util.MetadataHolder;
 import net.dv8tion.jda.api.interactions.modals.Modal;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
 import java.security.SecureRandom;
 import java.time.Duration;
+import java.time.Instant;
+import java.util.Arrays;
 import java.util.Base64;
+import java.util.HashMap;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.atomic.LongAdder;
 
+/**
+ * Attaches metadata to the custom ids of modals and components. Small metadata is written into the id
+ * itself and signed with an HMAC, so that no state has to be kept and pending requests survive a restart.
+ * Metadata that does not fit is stored for a limited time under a random key instead.
+ * <p>
+ * The signature covers the id of the server, so a signed id is only accepted in the server it was created
+ * in. Like stored requests, signed requests can be used once: a removed signed id is remembered until it
+ * expires. That memory is not kept across restarts, so after a restart an already used signed id is
+ * accepted again until its two hours have passed.
+ * <p>
+ * The signing key is configured with the {@code request_secret} property. Without it, a random key is used,
+ * and signed requests do not survive a restart either.
+ */
 public class RequestManager {
 
-    private final Map<String, Map<String, Object>> map;
+    private static final Logger LOGGER = LoggerFactory.getLogger(RequestManager.class);
+    private static final Duration LIFETIME = Duration.ofHours(2);
+    private static final int MAX_REQUESTS = 10_000;
+    private static final int MAX_ID_LENGTH = 100;
+    private static final int MAC_LENGTH = 10;
+    private static final byte VERSION = 2;
+    private static final String MAC_ALGORITHM = "HmacSHA256";
+    private static final SecretKeySpec KEY = getConfiguredKey();
+    private static final LongAdder signed = new LongAdder();
+    private static final LongAdder stored = new LongAdder();
+
+    private final String server;
+    private final ExpiringCache<String, Map<String, Object>> map;
+    private final ExpiringCache<String, Boolean> used;
     private final Random random;
     private final Base64.Encoder encoder;
     private final Base64.Decoder decoder;
 
-    public RequestManager() {
-        map = new TimedMap<>(Duration.ofHours(2).toMillis());
+    public RequestManager(@NotNull String server) {
+        this.server = server;
+        map = new ExpiringCache<>("requests", LIFETIME, MAX_REQUESTS);
+        used = new ExpiringCache<>("used_requests", LIFETIME, MAX_REQUESTS);
         random = new SecureRandom();
         encoder = Base64.getEncoder();
         decoder = Base64.getDecoder();
     }
 
+    @NotNull
+    private static SecretKeySpec getConfiguredKey() {
+        String property = Initializer.getInstance().getProperty("request_secret");
+        byte[] secret;
+        if (property == null || property.isBlank()) {
+            LOGGER.warn("No request_secret configured, signed requests will not survive a restart");
+            secret = new byte[32];
+            new SecureRandom().nextBytes(secret);
+        } else {
+            secret = property.strip().getBytes(StandardCharsets.UTF_8);
+        }
+        return new SecretKeySpec(secret, MAC_ALGORITHM);
+    }
+
+    /**
+     * @return the number of requests whose metadata was written into the id
+     */
+    public static long getSignedCount() {
+        return signed.sum();
+    }
+
+    /**
+     * @return the number of requests whose metadata was too large for the id, and was stored instead
+     */
+    public static long getStoredCount() {
+        return stored.sum();
+    }
+
     @NotNull
     public String createRequest(String name, Map<String, Object> metadata) {
+        String id = sign(name, metadata);
+        if (id != null) {
+            signed.increment();
+            return id;
+        }
+        stored.increment();
         String key = storeMetadata(metadata);
         return encode(name, key);
     }
 
     public void removeRequest(String id) {
+        if (id.startsWith("$")) {
+            used.put(id, Boolean.TRUE);
+            return;
+        }
         String[] decoded = decode(id);
         if (decoded == null) {
             return;
@@ -42,6 +125,9 @@ public class RequestManager {
 
     @Nullable
     public Map.Entry<String, Map<String, Object>> retrieveRequest(String id) throws BotErrorException {
+        if (id.startsWith("$")) {
+            return verify(id);
+        }
         String[] decoded = decode(id);
         if (decoded == null) {
             return null;
@@ -76,6 +162,166 @@ public class RequestManager {
         return split;
     }
 
+    /**
+     * Writes the name, metadata and expiry of a request into a signed id.
+     *
+     * @return the id, or {@code null} if the metadata cannot be written or the id would be too long
+     */
+    @Nullable
+    private String sign(@NotNull String name, @NotNull Map<String, Object> metadata) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(VERSION);
+            out.writeInt((int) Instant.now().plus(LIFETIME).getEpochSecond());
+            if (!writeString(out, name) || metadata.size() > 255) {
+                return null;
+            }
+            out.writeByte(metadata.size());
+            for (Map.Entry<String, Object> entry : metadata.entrySet()) {
+                if (!writeString(out, entry.getKey()) || !writeValue(out, entry.getValue())) {
+                    return null;
+                }
+            }
+        } catch (IOException e) {
+            return null;
+        }
+
+        byte[] payload = bytes.toByteArray();
+        Base64.Encoder urlEncoder = Base64.getUrlEncoder().withoutPadding();
+        String id = '$' + urlEncoder.encodeToString(payload) + '.' + urlEncoder.encodeToString(mac(payload));
+        return id.length() <= MAX_ID_LENGTH ? id : null;
+    }
+
+    @NotNull
+    private Map.Entry<String, Map<String, Object>> verify(@NotNull String id) throws BotErrorException {
+        int separator = id.lastIndexOf('.');
+        if (separator < 0) {
+            throw new BotErrorException("Invalid request");
+        }
+        byte[] payload;
+        byte[] mac;
+        try {
+            Base64.Decoder urlDecoder = Base64.getUrlDecoder();
+            payload = urlDecoder.decode(id.substring(1, separator));
+            mac = urlDecoder.decode(id.substring(separator + 1));
+        } catch (IllegalArgumentException e) {
+            throw new BotErrorException("Invalid request");
+        }
+        if (!MessageDigest.isEqual(mac, mac(payload))) {
+            throw new BotErrorException("Invalid request");
+        }
+
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+            if (in.readByte() != VERSION) {
+                throw new BotErrorException("Invalid request");
+            }
+            if (Instant.now().getEpochSecond() > Integer.toUnsignedLong(in.readInt()) || used.containsKey(id)) {
+                throw new BotErrorException("Request timed out");
+            }
+            String name = readString(in);
+            int size = in.readUnsignedByte();
+            Map<String, Object> metadata = new HashMap<>();
+            for (int i = 0; i < size; i++) {
+                metadata.put(readString(in), readValue(in));
+            }
+            return Map.entry(name, metadata);
+        } catch (IOException e) {
+            throw new BotErrorException("Invalid request");
+        }
+    }
+
+    /**
+     * @return the signature of the payload in this server
+     */
+    @NotNull
+    private byte[] mac(@NotNull byte[] payload) {
+        try {
+            Mac mac = Mac.getInstance(MAC_ALGORITHM);
+            mac.init(KEY);
+            mac.update(server.getBytes(StandardCharsets.UTF_8));
+            mac.update((byte) 0);
+            return Arrays.copyOf(mac.doFinal(payload), MAC_LENGTH);
+        } catch (GeneralSecurityException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static boolean writeString(@NotNull DataOutputStream out, @NotNull String string) throws IOException {
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > 255) {
+            return false;
+        }
+        out.writeByte(bytes.length);
+        out.write(bytes);
+        return true;
+    }
+
+    @NotNull
+    private static String readString(@NotNull DataInputStream in) throws IOException {
+        byte[] bytes = new byte[in.readUnsignedByte()];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Writes a value with a tag for its type. Strings of digits, such as snowflake ids, are written as numbers.
+     *
+     * @return whether the value could be written
+     */
+    private static boolean writeValue(@NotNull DataOutputStream out, @Nullable Object value) throws IOException {
+        if (value instanceof String string) {
+            Long number = parseSnowflake(string);
+            if (number != null) {
+                out.writeByte('N');
+                out.writeLong(number);
+                return true;
+            }
+            out.writeByte('S');
+            return writeString(out, string);
+        } else if (value instanceof Integer integer) {
+            out.writeByte('I');
+            out.writeInt(integer);
+            return true;
+        } else if (value instanceof Boolean bool) {
+            out.writeByte('B');
+            out.writeBoolean(bool);
+            return true;
+        }
+        return false;
+    }
+
+    @NotNull
+    private static Object readValue(@NotNull DataInputStream in) throws IOException {
+        return switch (in.readByte()) {
+            case 'N' -> Long.toString(in.readLong());
+            case 'S' -> readString(in);
+            case 'I' -> in.readInt();
+            case 'B' -> in.readBoolean();
+            default -> throw new IOException("Unknown value type");
+        };
+    }
+
+    /**
+     * @return the string as a number, or {@code null} if it would not be written back the same way
+     */
+    @Nullable
+    private static Long parseSnowflake(@NotNull String string) {
+        if (string.isEmpty() || string.length() > 19 || string.charAt(0) == '0') {
+            return null;
+        }
+        for (int i = 0; i < string.length(); i++) {
+            char c = string.charAt(i);
+            if (c < '0' || c > '9') {
+                return null;
+            }
+        }
+        try {
+            return Long.parseLong(string);
+        } catch (NumberFormatException e) {
+            return null;
+        }
+    }
+
     @NotNull
     public String storeMetadata(@NotNull Map<String, Object> data) {
         byte[] bytes = new byte[16];
@@ -0,0 +1,230 @@
+package com.thefatrat.eddiejunior;
+
+import com.thefatrat.eddiejunior.metrics.LatencyHistogram;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.requests.RestAction;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Submits outbound requests by priority. Interaction acknowledgements bypass the scheduler entirely, while
+ * other requests wait in a queue per guild and are handed to JDA a limited number at a time, higher
+ * priorities first. This keeps bursts of background traffic in a guild from filling the rate limit buckets
+ * that its replies need. A request holds its slot until JDA completes it, including any time spent waiting
+ * on a rate limit, so the slots are counted per guild: a rate limited guild only delays its own requests.
+ * <p>
+ * The number of requests in flight per guild is configured with the {@code rest_in_flight} property.
+ */
+public class RestScheduler {
+
+    private static final int DEFAULT_IN_FLIGHT = 8;
+    private static final RestScheduler instance = new RestScheduler(getConfiguredInFlight());
+
+    private static final Comparator<Task<?>> ORDER = Comparator.<Task<?>, Priority>comparing(task -> task.priority)
+        .thenComparingLong(task -> task.sequence);
+
+    private final Map<String, GuildQueue> queues = new HashMap<>();
+    private final Map<Priority, Integer> depths = new EnumMap<>(Priority.class);
+    private final Map<Priority, LatencyHistogram> waitTimes = new EnumMap<>(Priority.class);
+    private final int maxInFlight;
+    private int inFlight = 0;
+    private long sequence = 0;
+
+    public enum Priority {
+        /**
+         * Interaction acknowledgements, which are submitted immediately.
+         */
+        INTERACTION,
+        /**
+         * Changes a user is waiting to see, such as message edits and role assignments.
+         */
+        USER,
+        /**
+         * Everything else, such as log messages.
+         */
+        BACKGROUND
+    }
+
+    public static RestScheduler getInstance() {
+        return instance;
+    }
+
+    private RestScheduler(int maxInFlight) {
+        this.maxInFlight = maxInFlight;
+        for (Priority priority : Priority.values()) {
+            depths.put(priority, 0);
+            waitTimes.put(priority, new LatencyHistogram());
+        }
+    }
+
+    private static int getConfiguredInFlight() {
+        String property = Initializer.getInstance().getProperty("rest_in_flight");
+        if (property == null) {
+            return DEFAULT_IN_FLIGHT;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(property.strip()));
+        } catch (NumberFormatException e) {
+            return DEFAULT_IN_FLIGHT;
+        }
+    }
+
+    /**
+     * Schedules a request.
+     *
+     * @param guild    the guild the request is made for
+     * @param action   the request
+     * @param priority the priority
+     * @return a future that completes with the result of the request
+     */
+    @NotNull
+    public <T> CompletableFuture<T> submit(@NotNull Guild guild, @NotNull RestAction<T> action,
+        @NotNull Priority priority) {
+        if (priority == Priority.INTERACTION) {
+            return action.submit();
+        }
+
+        CompletableFuture<T> future = new CompletableFuture<>();
+        GuildQueue queue;
+        synchronized (this) {
+            queue = queues.computeIfAbsent(guild.getId(), GuildQueue::new);
+            queue.tasks.add(new Task<>(queue, action, priority, sequence++, future));
+            depths.merge(priority, 1, Integer::sum);
+        }
+        dispatch(queue);
+        return future;
+    }
+
+    public <T> void queue(@NotNull Guild guild, @NotNull RestAction<T> action, @NotNull Priority priority) {
+        queue(guild, action, priority, null);
+    }
+
+    /**
+     * Schedules a request, with callbacks in the style of {@link RestAction#queue(Consumer, Consumer)}.
+     *
+     * @param guild    the guild the request is made for
+     * @param action   the request
+     * @param priority the priority
+     * @param success  the callback on success, or {@code null}
+     */
+    public <T> void queue(@NotNull Guild guild, @NotNull RestAction<T> action, @NotNull Priority priority,
+        @Nullable Consumer<? super T> success) {
+        Consumer<? super Throwable> failure = RestAction.getDefaultFailure();
+        submit(guild, action, priority).whenComplete((result, e) -> {
+            if (e != null) {
+                failure.accept(e);
+            } else if (success != null) {
+                success.accept(result);
+            }
+        });
+    }
+
+    private void dispatch(@NotNull GuildQueue queue) {
+        while (true) {
+            Task<?> task;
+            synchronized (this) {
+                if (queue.inFlight >= maxInFlight || queue.tasks.isEmpty()) {
+                    if (queue.inFlight == 0) {
+                        queues.remove(queue.guildId, queue);
+                    }
+                    return;
+                }
+                task = queue.tasks.poll();
+                depths.merge(task.priority, -1, Integer::sum);
+                queue.inFlight++;
+                inFlight++;
+            }
+            waitTimes.get(task.priority).record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - task.created));
+            task.start();
+        }
+    }
+
+    private void release(@NotNull GuildQueue queue) {
+        synchronized (this) {
+            queue.inFlight--;
+            inFlight--;
+        }
+        dispatch(queue);
+    }
+
+    /**
+     * @param priority the priority
+     * @return the number of requests of the given priority waiting to be submitted
+     */
+    public synchronized int getQueueDepth(@NotNull Priority priority) {
+        return depths.get(priority);
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @param priority the priority
+     * @return the time requests of the given priority waited before being submitted, in microseconds
+     */
+    @NotNull
+    public LatencyHistogram getWaitTime(@NotNull Priority priority) {
+        return waitTimes.get(priority);
+    }
+
+    /**
+     * The requests of a guild that wait for one of its slots.
+     */
+    private static class GuildQueue {
+
+        private final String guildId;
+        private final PriorityQueue<Task<?>> tasks = new PriorityQueue<>(ORDER);
+        private int inFlight = 0;
+
+        private GuildQueue(String guildId) {
+            this.guildId = guildId;
+        }
+
+    }
+
+    private class Task<T> {
+
+        private final GuildQueue queue;
+        private final RestAction<T> action;
+        private final Priority priority;
+        private final long sequence;
+        private final long created = System.nanoTime();
+        private final CompletableFuture<T> future;
+
+        private Task(GuildQueue queue, RestAction<T> action, Priority priority, long sequence,
+            CompletableFuture<T> future) {
+            this.queue = queue;
+            this.action = action;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.future = future;
+        }
+
+        private void start() {
+            try {
+                action.queue(result -> {
+                    release(queue);
+                    future.complete(result);
+                }, e -> {
+                    release(queue);
+                    future.completeExceptionally(e);
+                });
+            } catch (RuntimeException e) {
+                release(queue);
+                future.completeExceptionally(e);
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,168 @@
+package com.thefatrat.eddiejunior;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+
+/**
+ * The stored state of a single server, loaded in bulk while the server is being loaded. Components read
+ * their settings, questions and polls from the snapshot through their {@link DatabaseManager} until it is
+ * released, after which reads go to the database again.
+ * <p>
+ * A snapshot loaded from the database only contains settings. A snapshot read from a {@link SnapshotFile}
+ * contains all tables, including the enabled components.
+ */
+public class ServerSnapshot {
+
+    private final Map<String, Map<String, List<String>>> settings = new HashMap<>();
+    private final Map<String, Set<String>> invalidated = new HashMap<>();
+    private Set<String> enabledComponents = null;
+    private Map<Integer, String> questions = null;
+    private Map<String, String> polls = null;
+    private boolean released = false;
+
+    /**
+     * Adds a value to the snapshot.
+     *
+     * @param component the component name
+     * @param name      the setting name
+     * @param value     the value
+     */
+    void add(@NotNull String component, @NotNull String name, String value) {
+        settings.computeIfAbsent(component, k -> new HashMap<>())
+            .computeIfAbsent(name, k -> new ArrayList<>())
+            .add(value);
+    }
+
+    void setEnabledComponents(@NotNull Set<String> enabledComponents) {
+        this.enabledComponents = enabledComponents;
+    }
+
+    void setQuestions(@NotNull Map<Integer, String> questions) {
+        this.questions = questions;
+    }
+
+    void setPolls(@NotNull Map<String, String> polls) {
+        this.polls = polls;
+    }
+
+    /**
+     * Returns the values of a setting, or {@code null} if the snapshot can no longer answer for it, either
+     * because the snapshot was released or because the setting has been written to since it was loaded.
+     *
+     * @param component the component name
+     * @param name      the setting name
+     * @return the values, which may be empty, or {@code null}
+     */
+    @Nullable
+    public synchronized List<String> get(@NotNull String component, @NotNull String name) {
+        if (released || invalidated.getOrDefault(component, Set.of()).contains(name)) {
+            return null;
+        }
+
+        Map<String, List<String>> componentSettings = settings.get(component);
+        if (componentSettings == null) {
+            return List.of();
+        }
+        List<String> values = componentSettings.get(name);
+        return values == null ? List.of() : Collections.unmodifiableList(values);
+    }
+
+    /**
+     * @return the names of the enabled components, or {@code null} if they are not part of the snapshot
+     */
+    @Nullable
+    public synchronized Set<String> getEnabledComponents() {
+        return released ? null : enabledComponents;
+    }
+
+    /**
+     * @return the stored questions by number, or {@code null} if they are not part of the snapshot
+     */
+    @Nullable
+    public synchronized Map<Integer, String> getQuestions() {
+        return released ? null : questions;
+    }
+
+    /**
+     * @return the stored polls by id, or {@code null} if they are not part of the snapshot
+     */
+    @Nullable
+    public synchronized Map<String, String> getPolls() {
+        return released ? null : polls;
+    }
+
+    /**
+     * Stops the snapshot from answering for a setting that has been written to.
+     *
+     * @param component the component name
+     * @param name      the setting name
+     */
+    public synchronized void invalidate(@NotNull String component, @NotNull String name) {
+        if (released) {
+            return;
+        }
+        invalidated.computeIfAbsent(component, k -> new HashSet<>()).add(name);
+    }
+
+    /**
+     * Releases the snapshot. All further reads go to the database.
+     */
+    public synchronized void release() {
+        released = true;
+        settings.clear();
+        invalidated.clear();
+        enabledComponents = null;
+        questions = null;
+        polls = null;
+    }
+
+    /**
+     * @return an unreleased copy of the stored state of this snapshot
+     */
+    @NotNull
+    public synchronized ServerSnapshot copy() {
+        ServerSnapshot copy = new ServerSnapshot();
+        settings.forEach((component, map) -> map.forEach((name, values) -> {
+            for (String value : values) {
+                copy.add(component, name, value);
+            }
+        }));
+        copy.enabledComponents = enabledComponents == null ? null : new HashSet<>(enabledComponents);
+        copy.questions = questions == null ? null : new HashMap<>(questions);
+        copy.polls = polls == null ? null : new HashMap<>(polls);
+        return copy;
+    }
+
+    synchronized Map<String, Map<String, List<String>>> getSettings() {
+        return settings;
+    }
+
+    /**
+     * Compares the stored state of two snapshots, ignoring whether they were released or written to.
+     *
+     * @param other the other snapshot
+     * @return whether both snapshots hold the same state
+     */
+    public boolean contentEquals(@NotNull ServerSnapshot other) {
+        return normalize(settings).equals(normalize(other.settings))
+            && Objects.equals(enabledComponents, other.enabledComponents)
+            && Objects.equals(questions, other.questions)
+            && Objects.equals(polls, other.polls);
+    }
+
+    @NotNull
+    private static Map<String, Map<String, List<String>>> normalize(
+        @NotNull Map<String, Map<String, List<String>>> settings) {
+
+        Map<String, Map<String, List<String>>> normalized = new HashMap<>();
+        settings.forEach((component, map) -> map.forEach((name, values) -> {
+            List<String> sorted = new ArrayList<>(values);
+            sorted.sort(Comparator.nullsFirst(Comparator.naturalOrder()));
+            normalized.computeIfAbsent(component, k -> new HashMap<>()).put(name, sorted);
+        }));
+        return normalized;
+    }
+
+}
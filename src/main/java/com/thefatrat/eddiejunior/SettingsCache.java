@@ -0,0 +1,216 @@
+package com.thefatrat.eddiejunior;
+
+import com.thefatrat.eddiejunior.metrics.CacheMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.UnaryOperator;
+
+/**
+ * Read-through cache of the settings of a single server. Values are cached the first time they are read,
+ * and kept up to date by the write methods of {@link DatabaseManager}.
+ * <p>
+ * When several processes share a database, setting the {@code settings_version_interval} property to a
+ * number of seconds enables a version check: every flush of the {@link SettingsWriter} increments the
+ * version of the servers it wrote to in the {@code setting_version} table, and a cache that finds the
+ * version of its server changed, at most once per interval, drops all its values. The increments made by the
+ * flushes of this process are counted, so that a cache does not drop its values because of its own writes.
+ */
+public class SettingsCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SettingsCache.class);
+    private static final Map<String, SettingsCache> caches = new ConcurrentHashMap<>();
+    private static final CacheMetrics.Counters counters = CacheMetrics.getInstance().getCounters("settings");
+    private static final long VERSION_INTERVAL = getConfiguredVersionInterval();
+
+    private final String server;
+    private final Map<Key, List<String>> values = new HashMap<>();
+    private long generation = 0;
+    private String version = null;
+    private long ownIncrements = 0;
+    private long lastVersionCheck = 0;
+
+    private SettingsCache(String server) {
+        this.server = server;
+    }
+
+    /**
+     * @param server the server id
+     * @return the cache of the server
+     */
+    @NotNull
+    public static SettingsCache of(@NotNull String server) {
+        return caches.computeIfAbsent(server, SettingsCache::new);
+    }
+
+    /**
+     * Drops the cache of a server, for example when the bot leaves it.
+     *
+     * @param server the server id
+     */
+    public static void evict(@NotNull String server) {
+        caches.remove(server);
+    }
+
+    private static long getConfiguredVersionInterval() {
+        String property = Initializer.getInstance().getProperty("settings_version_interval");
+        if (property == null) {
+            return 0;
+        }
+        try {
+            return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(property.strip())));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    /**
+     * Increments the versions of the given servers, if the version check is enabled.
+     *
+     * @param servers the ids of the servers that were written to
+     */
+    static void incrementVersions(@NotNull Collection<String> servers) {
+        if (VERSION_INTERVAL == 0 || servers.isEmpty()) {
+            return;
+        }
+        DatabaseManager.getStorage().incrementSettingVersions(servers);
+        for (String server : servers) {
+            SettingsCache cache = caches.get(server);
+            if (cache != null) {
+                synchronized (cache) {
+                    cache.ownIncrements++;
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the caches of the given servers as changed, so that values that were read from the database before
+     * a write completed are not cached.
+     *
+     * @param servers the ids of the servers that were written to
+     */
+    static void advanceGenerations(@NotNull Collection<String> servers) {
+        for (String server : servers) {
+            SettingsCache cache = caches.get(server);
+            if (cache != null) {
+                synchronized (cache) {
+                    cache.generation++;
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the cached values of a setting, or {@code null} if they are not cached
+     */
+    @Nullable
+    public List<String> get(@NotNull String component, @NotNull String name) {
+        checkVersion();
+        List<String> result;
+        synchronized (this) {
+            result = values.get(new Key(component, name));
+        }
+        if (result == null) {
+            counters.miss();
+        } else {
+            counters.hit();
+        }
+        return result;
+    }
+
+    /**
+     * @return a number that changes whenever a value in the cache is changed or dropped, and whenever changes
+     * of the server are written to the database
+     */
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    /**
+     * Caches the values of a setting that were read from the database, unless the cache has changed since
+     * the read started, in which case the values may already be outdated.
+     *
+     * @param generation the generation of the cache before the read started
+     */
+    public synchronized void put(@NotNull String component, @NotNull String name, @NotNull List<String> values,
+        long generation) {
+        if (this.generation == generation) {
+            this.values.put(new Key(component, name), Collections.unmodifiableList(new ArrayList<>(values)));
+        }
+    }
+
+    /**
+     * Applies a change to the cached values of a setting, if they are cached.
+     *
+     * @param update the change
+     */
+    public synchronized void update(@NotNull String component, @NotNull String name,
+        @NotNull UnaryOperator<List<String>> update) {
+        generation++;
+        values.computeIfPresent(new Key(component, name),
+            (key, current) -> Collections.unmodifiableList(new ArrayList<>(update.apply(current))));
+    }
+
+    /**
+     * Drops all values if another process has written to the settings of the server. The version is read
+     * outside the monitor, so that other reads and writes of the server do not wait for it.
+     */
+    private void checkVersion() {
+        if (VERSION_INTERVAL == 0) {
+            return;
+        }
+        long now = System.nanoTime();
+        long own;
+        synchronized (this) {
+            if (lastVersionCheck != 0 && now - lastVersionCheck < VERSION_INTERVAL) {
+                return;
+            }
+            lastVersionCheck = now;
+            own = ownIncrements;
+        }
+
+        String current;
+        try {
+            current = DatabaseManager.getStorage().getSettingVersion(server);
+        } catch (RuntimeException e) {
+            LOGGER.warn("Could not check the settings version of server {}", server, e);
+            return;
+        }
+
+        synchronized (this) {
+            if (!Objects.equals(version, current) && distance(version, current) != own) {
+                values.clear();
+                generation++;
+            }
+            version = current;
+            ownIncrements -= own;
+        }
+    }
+
+    /**
+     * @return the number of increments between two versions, or -1 if it is unknown
+     */
+    private static long distance(@Nullable String from, @Nullable String to) {
+        try {
+            return (to == null ? 0 : Long.parseLong(to)) - (from == null ? 0 : Long.parseLong(from));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private record Key(String component, String name) {
+    }
+
+}
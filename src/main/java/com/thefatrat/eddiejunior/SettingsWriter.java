@@ -0,0 +1,357 @@
+package com.thefatrat.eddiejunior;
+
+import com.thefatrat.eddiejunior.storage.Storage;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+/**
+ * Write-behind layer for settings. Changes are kept in memory and written to the database once per flush
+ * window, or as soon as enough of them have piled up. Repeated changes to the same setting are coalesced,
+ * so that only the final state of every setting is written, and all changes of a flush are handed to the
+ * storage as a single batch.
+ * <p>
+ * Changes that have not been written yet are applied on top of the values read from the database with
+ * {@link #overlay(String, String, String, List)}. {@link #flush()} writes all pending changes immediately,
+ * and is called on shutdown.
+ * <p>
+ * When a flush fails, its changes are put back in front of the changes that were made since, and the flush
+ * is retried with an increasing delay, so that the database catches up with what the bot already shows once
+ * it is reachable again. If the database is reachable, the changes of the failed flush are written one by
+ * one instead, so that a change the database rejects does not hold back the others. A change that is
+ * rejected {@value #MAX_ATTEMPTS} times is dropped: its futures fail and the cached values of its server are
+ * read from the database again.
+ */
+public class SettingsWriter {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SettingsWriter.class);
+    private static final long FLUSH_WINDOW = 1000;
+    private static final int FLUSH_THRESHOLD = 64;
+    private static final long MAX_RETRY_DELAY = 60_000;
+    private static final int MAX_ATTEMPTS = 3;
+    private static final SettingsWriter instance = new SettingsWriter();
+
+    private final ScheduledThreadPoolExecutor flusher = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "settings-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Object flushLock = new Object();
+    private Map<Key, Change> pending = new LinkedHashMap<>();
+    private Map<Key, Change> inFlight = Map.of();
+    private boolean scheduled = false;
+    private int failures = 0;
+
+    public static SettingsWriter getInstance() {
+        return instance;
+    }
+
+    private SettingsWriter() {
+    }
+
+    /**
+     * Replaces all values of a setting with a single value.
+     */
+    @NotNull
+    public CompletableFuture<Void> set(String server, String component, String name, @NotNull String value) {
+        return submit(new Key(server, component, name), change -> {
+            change.replace = true;
+            change.removed.clear();
+            change.added.clear();
+            change.added.add(value);
+        });
+    }
+
+    /**
+     * Adds a value to a setting.
+     */
+    @NotNull
+    public CompletableFuture<Void> add(String server, String component, String name, @NotNull String value) {
+        return submit(new Key(server, component, name), change -> change.added.add(value));
+    }
+
+    /**
+     * Removes all values of a setting.
+     */
+    @NotNull
+    public CompletableFuture<Void> remove(String server, String component, String name) {
+        return submit(new Key(server, component, name), change -> {
+            change.replace = true;
+            change.removed.clear();
+            change.added.clear();
+        });
+    }
+
+    /**
+     * Removes a single value from a setting.
+     */
+    @NotNull
+    public CompletableFuture<Void> remove(String server, String component, String name, @NotNull String value) {
+        return submit(new Key(server, component, name), change -> {
+            change.added.removeIf(value::equals);
+            if (!change.replace) {
+                change.removed.add(value);
+            }
+        });
+    }
+
+    @NotNull
+    private CompletableFuture<Void> submit(@NotNull Key key, @NotNull Consumer<Change> update) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        synchronized (this) {
+            Change change = pending.computeIfAbsent(key, k -> new Change());
+            update.accept(change);
+            change.futures.add(future);
+
+            if (pending.size() >= FLUSH_THRESHOLD && failures == 0) {
+                flusher.execute(this::flush);
+            } else if (!scheduled) {
+                scheduled = true;
+                flusher.schedule(this::flush, FLUSH_WINDOW, TimeUnit.MILLISECONDS);
+            }
+        }
+        return future;
+    }
+
+    /**
+     * @return whether the setting has changes that have not been written yet
+     */
+    public synchronized boolean hasPending(String server, String component, String name) {
+        Key key = new Key(server, component, name);
+        return pending.containsKey(key) || inFlight.containsKey(key);
+    }
+
+    /**
+     * Applies the changes that have not been written yet to the values of a setting.
+     *
+     * @param stored the values read from the database
+     * @return the current values of the setting
+     */
+    @NotNull
+    public synchronized List<String> overlay(String server, String component, String name,
+        @NotNull List<String> stored) {
+        Key key = new Key(server, component, name);
+        List<String> values = new ArrayList<>(stored);
+        for (Map<Key, Change> changes : List.of(inFlight, pending)) {
+            Change change = changes.get(key);
+            if (change != null) {
+                change.apply(values);
+            }
+        }
+        return values;
+    }
+
+    /**
+     * Writes all pending changes to the database and waits for them to complete.
+     */
+    public void flush() {
+        synchronized (flushLock) {
+            Map<Key, Change> changes;
+            synchronized (this) {
+                scheduled = false;
+                if (pending.isEmpty()) {
+                    return;
+                }
+                changes = pending;
+                inFlight = changes;
+                pending = new LinkedHashMap<>();
+            }
+
+            Map<Key, Change> failed = Map.of();
+            try {
+                write(changes);
+            } catch (RuntimeException e) {
+                failed = retry(changes, e);
+            }
+
+            Map<Key, Change> written = new LinkedHashMap<>(changes);
+            written.keySet().removeAll(failed.keySet());
+            if (written.isEmpty()) {
+                return;
+            }
+
+            // a read that started before the write may overlay nothing once the changes are no longer in flight
+            Set<String> servers = new LinkedHashSet<>();
+            written.keySet().forEach(key -> servers.add(key.server));
+            SettingsCache.advanceGenerations(servers);
+
+            synchronized (this) {
+                inFlight = Map.of();
+                if (failed.isEmpty()) {
+                    failures = 0;
+                }
+            }
+            written.values().forEach(change -> change.futures.forEach(future -> future.complete(null)));
+
+            try {
+                SettingsCache.incrementVersions(servers);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not increment the settings versions of {} servers", servers.size(), e);
+            }
+        }
+    }
+
+    /**
+     * Handles a failed flush. Changes the database rejects are dropped after {@value #MAX_ATTEMPTS} attempts,
+     * and the other changes that could not be written are put back and retried later.
+     *
+     * @param changes the changes of the flush
+     * @param error   the reason the flush failed
+     * @return the changes that were not written
+     */
+    @NotNull
+    private Map<Key, Change> retry(@NotNull Map<Key, Change> changes, @NotNull RuntimeException error) {
+        // attempts only count while the database is reachable, so that an outage never drops changes
+        boolean reachable = DatabaseManager.ping();
+        Map<Key, Change> failed = new LinkedHashMap<>();
+        Map<Key, Change> rejected = new LinkedHashMap<>();
+        Map<Key, RuntimeException> errors = new LinkedHashMap<>();
+
+        changes.forEach((key, change) -> {
+            if (reachable && changes.size() > 1) {
+                try {
+                    write(Map.of(key, change));
+                    return;
+                } catch (RuntimeException e) {
+                    errors.put(key, e);
+                }
+            }
+            failed.put(key, change);
+            if (reachable && ++change.attempts >= MAX_ATTEMPTS) {
+                rejected.put(key, change);
+            }
+        });
+
+        Map<Key, Change> retried = new LinkedHashMap<>(failed);
+        retried.keySet().removeAll(rejected.keySet());
+        long delay = 0;
+        synchronized (this) {
+            // the changes that were written stay in flight until flush has completed them
+            Map<Key, Change> written = new LinkedHashMap<>(changes);
+            written.keySet().removeAll(failed.keySet());
+            inFlight = written;
+            if (retried.isEmpty()) {
+                failures = 0;
+            } else {
+                requeue(retried);
+                failures++;
+                delay = Math.min(MAX_RETRY_DELAY, FLUSH_WINDOW << Math.min(failures - 1, 16));
+                scheduled = true;
+            }
+        }
+
+        if (!retried.isEmpty()) {
+            LOGGER.error("Could not write {} settings, retrying in {} ms", retried.size(), delay, error);
+            flusher.schedule(this::flush, delay, TimeUnit.MILLISECONDS);
+        }
+        rejected.forEach((key, change) -> {
+            RuntimeException cause = errors.getOrDefault(key, error);
+            LOGGER.error("Dropped setting {}.{} of server {} after {} attempts", key.component, key.name,
+                key.server, change.attempts, cause);
+            SettingsCache.evict(key.server);
+            change.futures.forEach(future -> future.completeExceptionally(cause));
+        });
+        return failed;
+    }
+
+    /**
+     * Puts the changes of a failed flush back, with the changes that were made in the meantime applied on top
+     * of them.
+     */
+    private void requeue(@NotNull Map<Key, Change> failed) {
+        pending.forEach((key, newer) -> {
+            Change older = failed.get(key);
+            if (older == null) {
+                failed.put(key, newer);
+            } else {
+                older.then(newer);
+            }
+        });
+        pending = failed;
+    }
+
+    private static void write(@NotNull Map<Key, Change> changes) {
+        List<Storage.Setting> replaced = new ArrayList<>();
+        List<Storage.Setting> removed = new ArrayList<>();
+        List<Storage.Setting> added = new ArrayList<>();
+
+        changes.forEach((key, change) -> {
+            if (change.replace) {
+                replaced.add(new Storage.Setting(key.server, key.component, key.name, null));
+            }
+            for (String value : change.removed) {
+                removed.add(new Storage.Setting(key.server, key.component, key.name, value));
+            }
+            for (String value : change.added) {
+                // deleting an added value first makes the batch safe to write again after it partly failed
+                if (!change.replace) {
+                    removed.add(new Storage.Setting(key.server, key.component, key.name, value));
+                }
+                added.add(new Storage.Setting(key.server, key.component, key.name, value));
+            }
+        });
+
+        DatabaseManager.getStorage().writeSettings(replaced, removed, added);
+    }
+
+    private record Key(String server, String component, String name) {
+    }
+
+    /**
+     * The final state of a setting relative to the database: whether all stored values are deleted, which
+     * single values are deleted, and which values are inserted afterwards.
+     */
+    private static class Change {
+
+        private boolean replace = false;
+        private int attempts = 0;
+        private final Set<String> removed = new LinkedHashSet<>();
+        private final List<String> added = new ArrayList<>();
+        private final Collection<CompletableFuture<Void>> futures = new ArrayList<>();
+
+        /**
+         * Applies a later change of the same setting on top of this one, in the same way as it was made.
+         */
+        private void then(@NotNull Change newer) {
+            if (newer.replace) {
+                replace = true;
+                removed.clear();
+                added.clear();
+            }
+            for (String value : newer.removed) {
+                added.removeIf(value::equals);
+                if (!replace) {
+                    removed.add(value);
+                }
+            }
+            added.addAll(newer.added);
+            futures.addAll(newer.futures);
+        }
+
+        private void apply(@NotNull List<String> values) {
+            if (replace) {
+                values.clear();
+            }
+            values.removeAll(removed);
+            for (String value : added) {
+                if (!values.contains(value)) {
+                    values.add(value);
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,172 @@
+package com.thefatrat.eddiejunior;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Binary file containing the {@link ServerSnapshot}s of all servers.
+ * <p>
+ * The file starts with a magic number and a format version, followed by the number of servers. Every server
+ * is stored as its id, its enabled components, its settings, its questions and its polls, each list prefixed
+ * by its length. Strings are stored as a length followed by their UTF-8 bytes, where a length of {@code -1}
+ * stands for {@code null}.
+ */
+public final class SnapshotFile {
+
+    private static final int MAGIC = 0x454A534E;
+    private static final int VERSION = 1;
+
+    private SnapshotFile() {
+    }
+
+    /**
+     * Writes the snapshots to the given path. The file is replaced atomically.
+     *
+     * @param path      the path of the file
+     * @param snapshots the snapshots by server id
+     * @throws IOException when the file could not be written
+     */
+    public static void write(@NotNull Path path, @NotNull Map<String, ServerSnapshot> snapshots) throws IOException {
+        Path temp = path.resolveSibling(path.getFileName() + ".tmp");
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(snapshots.size());
+
+            for (Map.Entry<String, ServerSnapshot> entry : snapshots.entrySet()) {
+                ServerSnapshot snapshot = entry.getValue();
+                writeString(out, entry.getKey());
+
+                Set<String> enabled = Objects.requireNonNullElse(snapshot.getEnabledComponents(), Set.of());
+                out.writeInt(enabled.size());
+                for (String component : enabled) {
+                    writeString(out, component);
+                }
+
+                List<String[]> settings = new ArrayList<>();
+                snapshot.getSettings().forEach((component, map) -> map.forEach((name, values) -> {
+                    for (String value : values) {
+                        settings.add(new String[]{component, name, value});
+                    }
+                }));
+                out.writeInt(settings.size());
+                for (String[] setting : settings) {
+                    writeString(out, setting[0]);
+                    writeString(out, setting[1]);
+                    writeString(out, setting[2]);
+                }
+
+                Map<Integer, String> questions = Objects.requireNonNullElse(snapshot.getQuestions(), Map.of());
+                out.writeInt(questions.size());
+                for (Map.Entry<Integer, String> question : questions.entrySet()) {
+                    out.writeInt(question.getKey());
+                    writeString(out, question.getValue());
+                }
+
+                Map<String, String> polls = Objects.requireNonNullElse(snapshot.getPolls(), Map.of());
+                out.writeInt(polls.size());
+                for (Map.Entry<String, String> poll : polls.entrySet()) {
+                    writeString(out, poll.getKey());
+                    writeString(out, poll.getValue());
+                }
+            }
+        }
+
+        Files.move(temp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Reads the snapshots from the given path by mapping the file into memory.
+     *
+     * @param path the path of the file
+     * @return the snapshots by server id, or {@code null} if the file has an unknown format or version
+     * @throws IOException when the file could not be read
+     */
+    @Nullable
+    public static Map<String, ServerSnapshot> read(@NotNull Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+
+            if (buffer.remaining() < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+
+            int serverCount = buffer.getInt();
+            Map<String, ServerSnapshot> snapshots = new HashMap<>(serverCount * 2);
+
+            for (int i = 0; i < serverCount; i++) {
+                String id = readString(buffer);
+                ServerSnapshot snapshot = new ServerSnapshot();
+
+                int enabledCount = buffer.getInt();
+                Set<String> enabled = new HashSet<>(enabledCount * 2);
+                for (int j = 0; j < enabledCount; j++) {
+                    enabled.add(readString(buffer));
+                }
+                snapshot.setEnabledComponents(enabled);
+
+                int settingCount = buffer.getInt();
+                for (int j = 0; j < settingCount; j++) {
+                    snapshot.add(readString(buffer), readString(buffer), readString(buffer));
+                }
+
+                int questionCount = buffer.getInt();
+                Map<Integer, String> questions = new HashMap<>(questionCount * 2);
+                for (int j = 0; j < questionCount; j++) {
+                    questions.put(buffer.getInt(), readString(buffer));
+                }
+                snapshot.setQuestions(questions);
+
+                int pollCount = buffer.getInt();
+                Map<String, String> polls = new HashMap<>(pollCount * 2);
+                for (int j = 0; j < pollCount; j++) {
+                    polls.put(readString(buffer), readString(buffer));
+                }
+                snapshot.setPolls(polls);
+
+                snapshots.put(id, snapshot);
+            }
+
+            return snapshots;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Snapshot file is truncated", e);
+        }
+    }
+
+    private static void writeString(@NotNull DataOutputStream out, @Nullable String string) throws IOException {
+        if (string == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    @Nullable
+    private static String readString(@NotNull ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+}
@@ -0,0 +1,125 @@
+package com.thefatrat.eddiejunior;
+
+import com.thefatrat.eddiejunior.metrics.QueryMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Bounded pool of threads that run the storage calls of the asynchronous {@link DatabaseManager} methods, so
+ * that event threads do not block on database I/O. The number of threads is set with the {@code io_threads}
+ * property (4 by default) and the number of queued calls with {@code io_queue} (1000 by default). When the
+ * queue is full, the calling thread runs the call itself, which slows down callers instead of dropping
+ * writes.
+ * <p>
+ * Reads run in any order. Writes of the same server run one at a time, in the order they were submitted,
+ * so that a later write can never be overtaken by an earlier one.
+ */
+class StorageExecutor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StorageExecutor.class);
+    private static final StorageExecutor instance = new StorageExecutor();
+
+    private final ThreadPoolExecutor executor;
+    private final Map<String, CompletableFuture<?>> tails = new ConcurrentHashMap<>();
+
+    public static StorageExecutor getInstance() {
+        return instance;
+    }
+
+    private StorageExecutor() {
+        int threads = getConfiguredInt("io_threads", 4);
+        AtomicInteger threadCount = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<>(getConfiguredInt("io_queue", 1000)),
+            runnable -> {
+                Thread thread = new Thread(runnable, "storage-io-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            },
+            new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static int getConfiguredInt(@NotNull String name, int defaultValue) {
+        String property = Initializer.getInstance().getProperty(name);
+        if (property == null) {
+            return defaultValue;
+        }
+        try {
+            return Math.max(1, Integer.parseInt(property.strip()));
+        } catch (NumberFormatException e) {
+            return defaultValue;
+        }
+    }
+
+    /**
+     * Runs a read on the pool. Its queries are attributed to the action of the calling thread.
+     *
+     * @param read the read
+     * @return a future of its result
+     */
+    @NotNull
+    public <T> CompletableFuture<T> read(@NotNull Supplier<T> read) {
+        return CompletableFuture.supplyAsync(QueryMetrics.getInstance().inContext(read), executor);
+    }
+
+    /**
+     * Runs a write on the pool, after all earlier writes of the same server have finished, whether they
+     * succeeded or not. Its queries are attributed to the action of the calling thread.
+     *
+     * @param server the server id
+     * @param write  the write
+     * @return a future of its result
+     */
+    @NotNull
+    public <T> CompletableFuture<T> write(@NotNull String server, @NotNull Supplier<T> write) {
+        Supplier<T> task = QueryMetrics.getInstance().inContext(write);
+        CompletableFuture<T> future;
+        synchronized (tails) {
+            CompletableFuture<?> tail = tails.get(server);
+            future = tail == null
+                ? CompletableFuture.supplyAsync(task, executor)
+                : tail.handle((value, error) -> null).thenApplyAsync(ignored -> task.get(), executor);
+            tails.put(server, future);
+        }
+        future.whenComplete((value, error) -> {
+            tails.remove(server, future);
+            if (error != null) {
+                LOGGER.error("Could not write to the storage for server {}", server, error);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * @return the number of calls waiting for a thread
+     */
+    public int getQueueDepth() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Waits for the pending writes to finish, for up to the given time, and stops the pool.
+     */
+    public void shutdown(long timeout, @NotNull TimeUnit unit) {
+        try {
+            CompletableFuture.allOf(tails.values().toArray(CompletableFuture[]::new))
+                .get(timeout, unit);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (Exception e) {
+            LOGGER.warn("{} servers still had storage writes pending on shutdown", tails.size());
+        }
+        executor.shutdown();
+    }
+
+}
@@ -0,0 +1,211 @@
+package com.thefatrat.eddiejunior;
+
+import com.thefatrat.eddiejunior.sources.Server;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Process-wide timer for delayed and repeating tasks, such as the expiry of polls, so that components do not
+ * need threads of their own. Timeouts are kept in a hashed wheel of {@value #WHEEL_SIZE} buckets that a
+ * single thread advances every {@value #TICK_MILLIS} ms. A timeout further away than one turn of the wheel
+ * waits for the number of turns it is away. Scheduling and cancelling a timeout take constant time, however
+ * many are pending.
+ * <p>
+ * Tasks never run early, and at most one tick late. They run on the timer thread, so they must be short;
+ * the methods that take a {@link Server} hand their tasks to the event queue of that server instead.
+ */
+public class TimerService {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(TimerService.class);
+    private static final long TICK_MILLIS = 100;
+    private static final long TICK = TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+    private static final int WHEEL_SIZE = 512;
+    private static final TimerService instance = new TimerService();
+
+    private final Queue<Timeout> added = new ConcurrentLinkedQueue<>();
+    private final List<List<Timeout>> wheel = new ArrayList<>(WHEEL_SIZE);
+    private final LongAdder pending = new LongAdder();
+    private final long start = System.nanoTime();
+    private long tick = 0;
+
+    public static TimerService getInstance() {
+        return instance;
+    }
+
+    private TimerService() {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            wheel.add(new ArrayList<>());
+        }
+        Thread thread = new Thread(this::run, "timer-wheel");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Runs a task once after the given delay, on the timer thread.
+     *
+     * @param delay the delay, or zero or less to run it on the next tick
+     * @param task  the task
+     * @return the timeout, which can be cancelled
+     */
+    @NotNull
+    public Timeout schedule(@NotNull Duration delay, @NotNull Runnable task) {
+        return add(new Timeout(System.nanoTime() + Math.max(0, delay.toNanos()), 0, task));
+    }
+
+    /**
+     * Runs a task once after the given delay, on the event queue of the given server.
+     */
+    @NotNull
+    public Timeout schedule(@NotNull Server server, @NotNull Duration delay, @NotNull Runnable task) {
+        return schedule(delay, () -> server.execute(task));
+    }
+
+    /**
+     * Runs a task every period, starting one period from now, on the timer thread, until it is cancelled.
+     *
+     * @param period the period, at least one tick
+     * @param task   the task
+     * @return the timeout, which can be cancelled
+     */
+    @NotNull
+    public Timeout scheduleRepeating(@NotNull Duration period, @NotNull Runnable task) {
+        long nanos = Math.max(TICK, period.toNanos());
+        return add(new Timeout(System.nanoTime() + nanos, nanos, task));
+    }
+
+    /**
+     * Runs a task every period on the event queue of the given server, until it is cancelled.
+     */
+    @NotNull
+    public Timeout scheduleRepeating(@NotNull Server server, @NotNull Duration period, @NotNull Runnable task) {
+        return scheduleRepeating(period, () -> server.execute(task));
+    }
+
+    /**
+     * @return the number of timeouts that have not fired or been cancelled, counting repeating ones once
+     */
+    public long getPendingCount() {
+        return pending.sum();
+    }
+
+    @NotNull
+    private Timeout add(@NotNull Timeout timeout) {
+        pending.increment();
+        added.add(timeout);
+        return timeout;
+    }
+
+    private void run() {
+        while (true) {
+            long deadline = start + (tick + 1) * TICK;
+            long now;
+            while ((now = System.nanoTime()) < deadline) {
+                LockSupport.parkNanos(deadline - now);
+            }
+
+            Timeout timeout;
+            while ((timeout = added.poll()) != null) {
+                if (timeout.state.get() == Timeout.PENDING) {
+                    place(timeout);
+                }
+            }
+
+            Iterator<Timeout> iterator = wheel.get((int) (tick % WHEEL_SIZE)).iterator();
+            while (iterator.hasNext()) {
+                timeout = iterator.next();
+                if (timeout.state.get() != Timeout.PENDING) {
+                    iterator.remove();
+                } else if (timeout.rounds > 0) {
+                    timeout.rounds--;
+                } else {
+                    iterator.remove();
+                    fire(timeout);
+                }
+            }
+            tick++;
+        }
+    }
+
+    /**
+     * Puts a timeout in the bucket of the tick it falls in, or in the current bucket if that tick has passed.
+     */
+    private void place(@NotNull Timeout timeout) {
+        long target = Math.max(tick, (timeout.deadline - start) / TICK);
+        timeout.rounds = (target - tick) / WHEEL_SIZE;
+        wheel.get((int) (target % WHEEL_SIZE)).add(timeout);
+    }
+
+    private void fire(@NotNull Timeout timeout) {
+        if (timeout.period > 0) {
+            timeout.deadline += timeout.period;
+            added.add(timeout);
+        } else if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+            pending.decrement();
+        } else {
+            return;
+        }
+        try {
+            timeout.task.run();
+        } catch (RuntimeException e) {
+            LOGGER.error("Timer task failed", e);
+        }
+    }
+
+    /**
+     * A scheduled task.
+     */
+    public static class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int EXPIRED = 1;
+        private static final int CANCELLED = 2;
+
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        private final long period;
+        private final Runnable task;
+        private long deadline;
+        private long rounds;
+
+        private Timeout(long deadline, long period, Runnable task) {
+            this.deadline = deadline;
+            this.period = period;
+            this.task = task;
+        }
+
+        /**
+         * Prevents the task from running. A task that is already running is not interrupted.
+         *
+         * @return whether the timeout was still pending
+         */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                instance.pending.decrement();
+                return true;
+            }
+            return false;
+        }
+
+        public boolean isCancelled() {
+            return state.get() == CANCELLED;
+        }
+
+        public boolean isExpired() {
+            return state.get() == EXPIRED;
+        }
+
+    }
+
+}
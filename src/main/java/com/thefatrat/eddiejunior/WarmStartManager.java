@@ -0,0 +1,136 @@
+package com.thefatrat.eddiejunior;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Optional warm start: on a graceful shutdown the stored state of all servers is written to a
+ * {@link SnapshotFile}, which is used on the next boot to load servers without querying the database. The
+ * database is then read in the background, and servers whose state turned out to differ are reloaded.
+ * <p>
+ * Enabled by setting the {@code snapshot_file} property to the path of the file.
+ */
+public class WarmStartManager {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(WarmStartManager.class);
+
+    private final Path path;
+    private final Map<String, ServerSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final ExecutorService reconcileExecutor = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "warm-start-reconcile");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public WarmStartManager(@NotNull Path path) {
+        this.path = path;
+    }
+
+    /**
+     * @return a warm start manager for the configured snapshot file, or {@code null} if none is configured
+     */
+    @Nullable
+    public static WarmStartManager fromConfig() {
+        String property = Initializer.getInstance().getProperty("snapshot_file");
+        if (property == null || property.isBlank()) {
+            return null;
+        }
+        return new WarmStartManager(Path.of(property.strip()));
+    }
+
+    /**
+     * Reads the snapshot file, if it exists. The file is deleted afterwards, so that a snapshot is never used
+     * after a crash that did not write a new one.
+     */
+    public void load() {
+        if (!Files.exists(path)) {
+            return;
+        }
+
+        try {
+            long start = System.currentTimeMillis();
+            Map<String, ServerSnapshot> read = SnapshotFile.read(path);
+            if (read == null) {
+                LOGGER.warn("Ignoring snapshot file {} with an unknown format", path);
+            } else {
+                snapshots.putAll(read);
+                LOGGER.info("Read snapshot of {} server(s) in {} ms", read.size(),
+                    System.currentTimeMillis() - start);
+            }
+        } catch (IOException e) {
+            LOGGER.error("Failed to read snapshot file {}", path, e);
+        }
+
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException e) {
+            LOGGER.error("Failed to delete snapshot file {}", path, e);
+        }
+    }
+
+    /**
+     * Returns a copy of the snapshot of a server to load it from. The original is kept to reconcile against.
+     *
+     * @param serverId the server id
+     * @return the snapshot, or {@code null} if the server is not part of the snapshot file
+     */
+    @Nullable
+    public ServerSnapshot getSnapshot(@NotNull String serverId) {
+        ServerSnapshot snapshot = snapshots.get(serverId);
+        return snapshot == null ? null : snapshot.copy();
+    }
+
+    /**
+     * Compares the snapshot of a server with the database in the background, and runs the given task when
+     * they differ.
+     *
+     * @param serverId the server id
+     * @param onStale  the task to run when the snapshot turned out to be stale
+     */
+    public void reconcile(@NotNull String serverId, @NotNull Runnable onStale) {
+        ServerSnapshot snapshot = snapshots.remove(serverId);
+        if (snapshot == null) {
+            return;
+        }
+
+        reconcileExecutor.execute(() -> {
+            try {
+                ServerSnapshot current = DatabaseManager.getFullServerSnapshot(serverId);
+                if (!snapshot.contentEquals(current)) {
+                    LOGGER.info("Snapshot of server {} is stale, reloading from the database", serverId);
+                    onStale.run();
+                }
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to reconcile server {}", serverId, e);
+            }
+        });
+    }
+
+    /**
+     * Writes the stored state of the given servers to the snapshot file.
+     *
+     * @param serverIds the server ids
+     */
+    public void save(@NotNull Collection<String> serverIds) {
+        try {
+            long start = System.currentTimeMillis();
+            SnapshotFile.write(path, DatabaseManager.getFullServerSnapshots(serverIds));
+            LOGGER.info("Wrote snapshot of {} server(s) in {} ms", serverIds.size(),
+                System.currentTimeMillis() - start);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.error("Failed to write snapshot file {}", path, e);
+        }
+    }
+
+}
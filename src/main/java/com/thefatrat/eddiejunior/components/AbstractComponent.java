@@ -38,7 +38,7 @@ public abstract class AbstractComponent implements Component {
         this.server = server;
         this.id = id.toLowerCase(Locale.ROOT);
         this.enabled = false;
-        databaseManager = new DatabaseManager(server.getId(), getId());
+        databaseManager = new DatabaseManager(server.getId(), getId(), server.getServerSnapshot());
     }
 
     @Override
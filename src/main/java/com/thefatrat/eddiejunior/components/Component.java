@@ -26,6 +26,13 @@ public interface Component {
      */
     void disable();
 
+    /**
+     * Releases the resources of the component, such as pending timeouts, when its server is unloaded. The
+     * component is not used afterwards.
+     */
+    default void destroy() {
+    }
+
     /**
      * @return whether the component is enabled
      */
@@ -7,6 +7,7 @@ import com.thefatrat.eddiejunior.entities.PermissionEntity;
 import com.thefatrat.eddiejunior.events.CommandEvent;
 import com.thefatrat.eddiejunior.events.GenericEvent;
 import com.thefatrat.eddiejunior.exceptions.BotErrorException;
+import com.thefatrat.eddiejunior.exceptions.BotException;
 import com.thefatrat.eddiejunior.exceptions.BotWarningException;
 import com.thefatrat.eddiejunior.reply.InteractionReply;
 import com.thefatrat.eddiejunior.reply.MenuReply;
@@ -14,7 +15,9 @@ import com.thefatrat.eddiejunior.reply.Reply;
 import com.thefatrat.eddiejunior.sources.Direct;
 import com.thefatrat.eddiejunior.sources.Server;
 import com.thefatrat.eddiejunior.util.Colors;
+import com.thefatrat.eddiejunior.util.ExpiringCache;
 import com.thefatrat.eddiejunior.util.Icon;
+import com.thefatrat.eddiejunior.util.LazyMessage;
 import com.thefatrat.eddiejunior.util.PermissionChecker;
 import com.thefatrat.eddiejunior.util.URLUtil;
 import net.dv8tion.jda.api.EmbedBuilder;
@@ -35,6 +38,7 @@ import net.dv8tion.jda.api.utils.messages.MessageCreateData;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.time.Duration;
 import java.util.*;
 import java.util.function.Function;
 
@@ -43,10 +47,11 @@ public abstract class DirectMessageComponent extends AbstractComponent implement
     private final String alt;
     private final boolean autoRun;
     private final Set<String> blacklist = new HashSet<>();
-    private final Map<String, Message> requests = new HashMap<>();
+    private final ExpiringCache<String, Message> requests =
+        new ExpiringCache<>("direct_requests", Duration.ofMinutes(15), 1000);
     private boolean running = false;
     private String destination;
-    private Message confirmation;
+    private LazyMessage confirmation;
 
     public DirectMessageComponent(Server server, String title, String alt, boolean autoRun) {
         super(server, title);
@@ -58,7 +63,7 @@ public abstract class DirectMessageComponent extends AbstractComponent implement
         }
         blacklist.addAll(getDatabaseManager().getSettings("blacklist"));
         String confirmationString = getDatabaseManager().getSetting("confirmationmessage");
-        confirmation = URLUtil.getMessageFromString(confirmationString, getGuild());
+        confirmation = LazyMessage.fromString(confirmationString, getGuild());
 
         setComponentCommand(PermissionEntity.RequiredPermission.MANAGE);
 
@@ -237,9 +242,13 @@ public abstract class DirectMessageComponent extends AbstractComponent implement
 
             blacklist.clear();
             getDatabaseManager().removeSetting("blacklist")
-                .queue(c ->
-                    reply.ok("Blacklist cleared")
-                );
+                .whenComplete((__, e) -> {
+                    if (e != null) {
+                        reply.send(new BotErrorException("Could not clear the blacklist"));
+                    } else {
+                        reply.ok("Blacklist cleared");
+                    }
+                });
             return;
         }
 
@@ -295,14 +304,30 @@ public abstract class DirectMessageComponent extends AbstractComponent implement
         if (getBlacklist().contains(message.getAuthor().getId())) {
             throw new BotWarningException("You are not allowed to send messages at the moment");
         }
+        LazyMessage confirmation = this.confirmation;
         if (confirmation == null) {
             this.handleDirect(message, reply);
             return;
         }
 
+        // the mailbox does not wait for the confirmation message to be retrieved
+        confirmation.resolve().thenAccept(confirmationMessage -> getServer().execute(() -> {
+            try {
+                if (confirmationMessage == null) {
+                    this.handleDirect(message, reply);
+                    return;
+                }
+                askConfirmation(message, confirmationMessage, reply);
+            } catch (BotException e) {
+                reply.send(e);
+            }
+        }));
+    }
+
+    private void askConfirmation(Message message, Message confirmationMessage, MenuReply reply) {
         this.requests.put(message.getAuthor().getId(), message);
 
-        MessageCreateData confirmationReply = MessageCreateBuilder.fromMessage(confirmation)
+        MessageCreateData confirmationReply = MessageCreateBuilder.fromMessage(confirmationMessage)
             .setComponents(
                 ActionRow.of(
                     Direct.requestButton(this, ButtonStyle.SUCCESS, "submit", "Submit")
@@ -373,7 +398,7 @@ public abstract class DirectMessageComponent extends AbstractComponent implement
 
     private void setConfirmation(CommandEvent command, InteractionReply reply) {
         Message message = URLUtil.messageFromURL(command.get("message").getAsString(), getGuild());
-        this.confirmation = message;
+        this.confirmation = LazyMessage.of(message);
         reply.hide();
         reply.ok("Set confirmation message for `%s`", getId());
         getServer().log(command.getMember().getUser(), "Set confirmation message for `%s` (%s)", getId(),
@@ -14,6 +14,7 @@ import com.thefatrat.eddiejunior.reply.InteractionReply;
 import com.thefatrat.eddiejunior.reply.Reply;
 import com.thefatrat.eddiejunior.sources.Server;
 import com.thefatrat.eddiejunior.util.Colors;
+import com.thefatrat.eddiejunior.util.DocumentCodec;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.ScheduledEvent;
 import net.dv8tion.jda.api.interactions.commands.OptionMapping;
@@ -22,27 +23,28 @@ import net.dv8tion.jda.api.interactions.commands.build.OptionData;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.Base64;
 import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Objects;
 
 public class EventComponent extends AbstractComponent {
 
     private final Map<String, Link> links = new HashMap<>();
+    // the stored values by keyword, which may still be in an older format
+    private final Map<String, String> storedLinks = new HashMap<>();
 
     public EventComponent(Server server) {
         super(server, "Event");
 
-        Base64.Decoder decoder = Base64.getDecoder();
-
         for (String linkString : getDatabaseManager().getSettings("link")) {
-            String[] split = linkString.split("-", 3);
-            String keyword = new String(decoder.decode(split[0]));
-            String session = "null".equals(split[1]) ? null : new String(decoder.decode(split[1]));
-            String component = "null".equals(split[2]) ? null : new String(decoder.decode(split[2]));
-            Link link = new Link(keyword, session, component);
-            links.put(keyword, link);
+            Link link = Link.CODEC.decode(linkString);
+            links.put(link.keyword(), link);
+            storedLinks.put(link.keyword(), linkString);
         }
 
         getServer().getEventHandler().addListener((e, r) -> this.processEvent(e));
@@ -191,8 +193,10 @@ public class EventComponent extends AbstractComponent {
         }
 
         Link link = new Link(keyword, session, component);
-        getDatabaseManager().addSetting("link", link.toString());
+        String value = Link.CODEC.encode(link);
+        getDatabaseManager().addSetting("link", value);
         links.put(keyword, link);
+        storedLinks.put(keyword, value);
         reply.ok("Linked keyword `%s`", keyword);
     }
 
@@ -209,8 +213,8 @@ public class EventComponent extends AbstractComponent {
             throw new BotErrorException("`%s` is not a linked keyword", keyword);
         }
 
-        Link link = links.remove(keyword);
-        getDatabaseManager().removeSetting("link", link.toString());
+        links.remove(keyword);
+        getDatabaseManager().removeSetting("link", storedLinks.remove(keyword));
         reply.ok("Unlinked keyword `%s`", keyword);
     }
 
@@ -252,14 +256,53 @@ public class EventComponent extends AbstractComponent {
 
     private record Link(String keyword, @Nullable String session, @Nullable String component) {
 
-        @Override
-        public String toString() {
-            Base64.Encoder encoder = Base64.getEncoder();
+        private static final DocumentCodec<Link> CODEC = new Codec();
+
+        private static class Codec extends DocumentCodec<Link> {
+
+            private Codec() {
+                super(1);
+            }
+
+            @Override
+            protected void write(@NotNull DataOutputStream out, @NotNull Link link) throws IOException {
+                writeString(out, link.keyword);
+                writeString(out, link.session);
+                writeString(out, link.component);
+            }
+
+            @NotNull
+            @Override
+            protected Link read(@NotNull DataInputStream in, int version) throws IOException {
+                return new Link(Objects.requireNonNull(readString(in)), readString(in), readString(in));
+            }
+
+            @NotNull
+            @Override
+            protected String toText(@NotNull Link link) {
+                Base64.Encoder encoder = Base64.getEncoder();
+
+                return String.format("%s-%s-%s",
+                    encoder.encodeToString(link.keyword.getBytes()),
+                    link.session == null ? "null" : encoder.encodeToString(link.session.getBytes()),
+                    link.component == null ? "null" : encoder.encodeToString(link.component.getBytes()));
+            }
+
+            @NotNull
+            @Override
+            protected Link fromText(@NotNull String text) {
+                Base64.Decoder decoder = Base64.getDecoder();
+
+                String[] split = text.split("-", 3);
+                if (split.length != 3) {
+                    throw new IllegalArgumentException("Invalid link");
+                }
+                String keyword = new String(decoder.decode(split[0]));
+                String session = "null".equals(split[1]) ? null : new String(decoder.decode(split[1]));
+                String component = "null".equals(split[2]) ? null : new String(decoder.decode(split[2]));
+                return new Link(keyword, session, component);
+            }
 
-            return String.format("%s-%s-%s",
-                encoder.encodeToString(keyword.getBytes()),
-                session == null ? "null" : encoder.encodeToString(session.getBytes()),
-                component == null ? "null" : encoder.encodeToString(component.getBytes()));
         }
 
     }
@@ -66,7 +66,8 @@ public class FanMailComponent extends DirectMessageComponent {
                 .setAction(this::setSubmissionChannel)
         );
 
-        getServer().getButtonHandler().addListener(this::handleButton);
+        getServer().getButtonHandler().addListener("fanart_approve", this::handleButton);
+        getServer().getButtonHandler().addListener("fanart_deny", this::handleButton);
     }
 
     /**
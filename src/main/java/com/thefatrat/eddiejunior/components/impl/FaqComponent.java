@@ -14,16 +14,16 @@ import com.thefatrat.eddiejunior.reply.InteractionReply;
 import com.thefatrat.eddiejunior.reply.MenuReply;
 import com.thefatrat.eddiejunior.sources.Server;
 import com.thefatrat.eddiejunior.util.Colors;
+import com.thefatrat.eddiejunior.util.DocumentCodec;
 import com.thefatrat.eddiejunior.util.EmojiUtil;
 import com.thefatrat.eddiejunior.util.Icon;
+import com.thefatrat.eddiejunior.util.LazyMessage;
 import com.thefatrat.eddiejunior.util.URLUtil;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.User;
-import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
 import net.dv8tion.jda.api.entities.channel.middleman.GuildMessageChannel;
 import net.dv8tion.jda.api.entities.emoji.Emoji;
-import net.dv8tion.jda.api.exceptions.InsufficientPermissionException;
 import net.dv8tion.jda.api.interactions.commands.OptionMapping;
 import net.dv8tion.jda.api.interactions.commands.OptionType;
 import net.dv8tion.jda.api.interactions.commands.build.OptionData;
@@ -40,15 +40,19 @@ import net.dv8tion.jda.internal.requests.CompletedRestAction;
 import org.jetbrains.annotations.Contract;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.util.*;
 
 public class FaqComponent extends AbstractComponent {
 
     private final Map<Integer, Question> questions = new HashMap<>();
     private int questionId = -1;
-    private Message faqMessage;
+    private LazyMessage faqMessage;
 
     public FaqComponent(Server server) {
         super(server, "Faq");
@@ -60,17 +64,7 @@ public class FaqComponent extends AbstractComponent {
                 this.questionId = Math.max(questionId, question.id());
             }
 
-            String faqMessageId = getDatabaseManager().getSetting("faqmessage");
-            if (faqMessageId != null) {
-                String[] split = faqMessageId.split("_", 2);
-                TextChannel channel = getGuild().getTextChannelById(split[0]);
-                if (channel != null) {
-                    try {
-                        faqMessage = channel.retrieveMessageById(split[1]).onErrorMap(e -> null).complete();
-                    } catch (InsufficientPermissionException ignore) {
-                    }
-                }
-            }
+            faqMessage = LazyMessage.fromString(getDatabaseManager().getSetting("faqmessage"), getGuild());
         }
 
         setComponentCommand(PermissionEntity.RequiredPermission.MANAGE);
@@ -224,7 +218,7 @@ public class FaqComponent extends AbstractComponent {
                         .build())
                     .build())
             .queue(m -> {
-                faqMessage = m;
+                faqMessage = LazyMessage.of(m);
                 getDatabaseManager().setSetting("faqmessage", m.getChannel().getId() + "_" + m.getId());
                 getServer().log(command.getMember().getUser(), "Set FAQ message:%n%s", m.getJumpUrl());
             });
@@ -244,7 +238,7 @@ public class FaqComponent extends AbstractComponent {
             throw new BotErrorException("Message was not sent by me");
         }
 
-        faqMessage = message;
+        faqMessage = LazyMessage.of(message);
         getDatabaseManager().setSetting("faqmessage", message.getChannel().getId() + "_" + message.getId());
         updateMessage(faqMessage).queue();
 
@@ -288,7 +282,7 @@ public class FaqComponent extends AbstractComponent {
         reply.ok("Added question and answer for `%s`", question);
         getServer().log(event.getMember().getUser(), "Added question and answer for `%s`", question);
         updateMessage(faqMessage).queue();
-        getDatabaseManager().setQuestion(questionId, faqQuestion.toJson());
+        getDatabaseManager().setQuestionAsync(questionId, faqQuestion.encode());
     }
 
     private void handleRemoveSelectMenu(SelectEvent<SelectOption> event, MenuReply reply) {
@@ -304,7 +298,7 @@ public class FaqComponent extends AbstractComponent {
         reply.edit(Icon.STOP, "Removed question `%s`", question);
         getServer().log(event.getUser(), "Removed question `%s`", question);
         updateMessage(faqMessage).queue();
-        getDatabaseManager().removeQuestion(id);
+        getDatabaseManager().removeQuestionAsync(id);
     }
 
     private void handleEditSelectMenu(SelectEvent<SelectOption> event, MenuReply reply) {
@@ -429,7 +423,7 @@ public class FaqComponent extends AbstractComponent {
         if (changeQ || changeE || changeD) {
             updateMessage(faqMessage).queue();
         }
-        getDatabaseManager().setQuestion(id, newFaqQuestion.toJson());
+        getDatabaseManager().setQuestionAsync(id, newFaqQuestion.encode());
     }
 
     private void handleFaqQuery(SelectEvent<SelectOption> event, MenuReply reply) {
@@ -492,13 +486,14 @@ public class FaqComponent extends AbstractComponent {
     }
 
     @Contract("null -> new")
-    private @NotNull RestAction<Message> updateMessage(Message message) {
-        if (message == null || !message.getChannel().canTalk()) {
+    private @NotNull RestAction<Message> updateMessage(LazyMessage message) {
+        GuildMessageChannel channel = message == null ? null : message.getChannel();
+        if (channel == null || !channel.canTalk()) {
             return new CompletedRestAction<>(Bot.getInstance().getJDA(), null);
         }
 
         if (!this.questions.isEmpty()) {
-            return message.editMessageComponents(
+            return channel.editMessageComponentsById(message.getMessageId(),
                     ActionRow.of(StringSelectMenu.create("faq_query")
                         .addOptions(getOptions())
                         .setPlaceholder("Select a question")
@@ -508,7 +503,7 @@ public class FaqComponent extends AbstractComponent {
                 )
                 .onErrorMap(e -> null);
         }
-        return message.editMessageComponents().onErrorMap(e -> null);
+        return channel.editMessageComponentsById(message.getMessageId()).onErrorMap(e -> null);
     }
 
     @Override
@@ -519,7 +514,7 @@ public class FaqComponent extends AbstractComponent {
                 Message: %s
                 """,
             isEnabled(), this.questions.size(),
-            Optional.ofNullable(faqMessage).map(Message::getJumpUrl).orElse("null"));
+            Optional.ofNullable(faqMessage).map(LazyMessage::getJumpUrl).orElse("null"));
     }
 
     public record Question(int id,
@@ -529,24 +524,75 @@ public class FaqComponent extends AbstractComponent {
                            @Nullable String emoji,
                            @Nullable String url) {
 
-        public static Question fromJson(int id, String json) {
-            JSONObject element = new JSONObject(json);
-            String q = element.getString("q");
-            String a = element.getString("a");
-            String e = element.optString("e", null);
-            String d = element.optString("d", null);
-            String u = element.optString("u", null);
-            return new Question(id, q, a, d, e, u);
-        }
-
-        public String toJson() {
-            JSONObject object = new JSONObject()
-                .put("q", question)
-                .put("a", answer)
-                .put("d", description)
-                .put("e", emoji)
-                .put("u", url);
-            return object.toString();
+        private static final DocumentCodec<Question> CODEC = new Codec();
+
+        /**
+         * @param id    the number of the question
+         * @param value the stored document, in either the binary or the JSON format
+         */
+        public static Question decode(int id, String value) {
+            Question question = CODEC.decode(value);
+            return new Question(id, question.question, question.answer, question.description, question.emoji,
+                question.url);
+        }
+
+        /**
+         * @return the document to store, without the number of the question
+         */
+        public String encode() {
+            return CODEC.encode(this);
+        }
+
+        private static class Codec extends DocumentCodec<Question> {
+
+            private Codec() {
+                super(1);
+            }
+
+            @Override
+            protected void write(@NotNull DataOutputStream out, @NotNull Question question) throws IOException {
+                writeString(out, question.question);
+                writeString(out, question.answer);
+                writeString(out, question.description);
+                writeString(out, question.emoji);
+                writeString(out, question.url);
+            }
+
+            @NotNull
+            @Override
+            protected Question read(@NotNull DataInputStream in, int version) throws IOException {
+                return new Question(0, readString(in), readString(in), readString(in), readString(in),
+                    readString(in));
+            }
+
+            @NotNull
+            @Override
+            protected String toText(@NotNull Question question) {
+                JSONObject object = new JSONObject()
+                    .put("q", question.question)
+                    .put("a", question.answer)
+                    .put("d", question.description)
+                    .put("e", question.emoji)
+                    .put("u", question.url);
+                return object.toString();
+            }
+
+            @NotNull
+            @Override
+            protected Question fromText(@NotNull String text) {
+                try {
+                    JSONObject element = new JSONObject(text);
+                    String q = element.getString("q");
+                    String a = element.getString("a");
+                    String e = element.optString("e", null);
+                    String d = element.optString("d", null);
+                    String u = element.optString("u", null);
+                    return new Question(0, q, a, d, e, u);
+                } catch (JSONException e) {
+                    throw new IllegalArgumentException("Invalid question", e);
+                }
+            }
+
         }
 
     }
@@ -196,9 +196,13 @@ public class FeedbackComponent extends DirectMessageComponent {
 
                         domains.clear();
                         getDatabaseManager().removeSetting("domains")
-                            .queue(c ->
-                                reply.ok("Domain whitelist cleared")
-                            );
+                            .whenComplete((__, e) -> {
+                                if (e != null) {
+                                    reply.send(new BotErrorException("Could not clear the domain whitelist"));
+                                } else {
+                                    reply.ok("Domain whitelist cleared");
+                                }
+                            });
                         return;
                     }
 
@@ -290,7 +294,13 @@ public class FeedbackComponent extends DirectMessageComponent {
 
                         filetypes.clear();
                         getDatabaseManager().removeSetting("filetypes")
-                            .queue(c -> reply.ok("Filetype list cleared"));
+                            .whenComplete((__, e) -> {
+                                if (e != null) {
+                                    reply.send(new BotErrorException("Could not clear the filetype list"));
+                                } else {
+                                    reply.ok("Filetype list cleared");
+                                }
+                            });
                         return;
                     }
 
@@ -379,14 +389,8 @@ public class FeedbackComponent extends DirectMessageComponent {
                 })
         );
 
-        getServer().getButtonHandler().addListener((event, reply) -> {
-            String buttonId = event.getButtonId();
-            if (!buttonId.startsWith("feedback-")) {
-                return;
-            }
-
-            String[] split = buttonId.split("-");
-            String action = split[1];
+        getServer().getButtonHandler().addListener("feedback", (event, reply) -> {
+            String action = event.getArguments()[0];
 
             if ("next".equals(action)) {
                 if (!isRunning()) {
@@ -417,7 +421,7 @@ public class FeedbackComponent extends DirectMessageComponent {
                         break;
                     }
 
-                    getServer().log(Colors.GRAY, submission.member().getUser(),
+                    getServer().logVerbose(Colors.GRAY, submission.member().getUser(),
                         "Skipped song because of inactivity");
 
                     submission = null;
@@ -571,7 +575,7 @@ public class FeedbackComponent extends DirectMessageComponent {
 
         submissions.add(new Submission(member, builder.build()));
         submissionCount++;
-        getServer().log(Colors.GRAY, author, "Submitted song <%s>", url);
+        getServer().logVerbose(Colors.GRAY, author, "Submitted song <%s>", url);
     }
 
     @Override
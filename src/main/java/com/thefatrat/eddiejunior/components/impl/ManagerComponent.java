@@ -1,9 +1,9 @@
 package com.thefatrat.eddiejunior.components.impl;
 
-import com.pascalnb.dbwrapper.Database;
-import com.pascalnb.dbwrapper.DatabaseException;
 import com.thefatrat.eddiejunior.Bot;
 import com.thefatrat.eddiejunior.DatabaseManager;
+import com.thefatrat.eddiejunior.RequestManager;
+import com.thefatrat.eddiejunior.RestScheduler;
 import com.thefatrat.eddiejunior.builders.HelpMessageBuilder;
 import com.thefatrat.eddiejunior.components.AbstractComponent;
 import com.thefatrat.eddiejunior.components.Component;
@@ -15,6 +15,10 @@ import com.thefatrat.eddiejunior.events.CommandEvent;
 import com.thefatrat.eddiejunior.exceptions.BotErrorException;
 import com.thefatrat.eddiejunior.exceptions.BotException;
 import com.thefatrat.eddiejunior.exceptions.BotWarningException;
+import com.thefatrat.eddiejunior.metrics.CacheMetrics;
+import com.thefatrat.eddiejunior.metrics.CommandMetrics;
+import com.thefatrat.eddiejunior.metrics.LatencyHistogram;
+import com.thefatrat.eddiejunior.metrics.QueryMetrics;
 import com.thefatrat.eddiejunior.reply.InteractionReply;
 import com.thefatrat.eddiejunior.sources.Server;
 import com.thefatrat.eddiejunior.util.Colors;
@@ -40,6 +44,7 @@ import oshi.hardware.GlobalMemory;
 import java.io.File;
 import java.io.IOException;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Optional;
@@ -115,6 +120,12 @@ public class ManagerComponent extends AbstractComponent implements GlobalCompone
                 .setRequiredPermission(PermissionEntity.RequiredPermission.MANAGE)
                 .setAction(this::getVitals),
 
+            new Command("stats", "show the slowest commands")
+                .setRequiredPermission(PermissionEntity.RequiredPermission.MANAGE)
+                .addOptions(new OptionData(OptionType.INTEGER, "count", "number of commands to show", false)
+                    .setRequiredRange(1, 22))
+                .setAction(this::getStats),
+
             new Command("setmanagerole", "set the role that can manage Eddie Junior")
                 .setRequiredPermission(PermissionEntity.RequiredPermission.ADMIN)
                 .addOptions(new OptionData(OptionType.ROLE, "role", "role", true))
@@ -162,21 +173,14 @@ public class ManagerComponent extends AbstractComponent implements GlobalCompone
                 .build(),
             message -> {
                 MessageEmbed embed = message.getEmbeds().get(0);
-                try {
-                    long start2 = System.currentTimeMillis();
-                    Database database = Database.getInstance().connect();
+                long start2 = System.currentTimeMillis();
+                DatabaseManager.pingAsync().thenAccept(reachable -> {
                     long time2 = System.currentTimeMillis() - start2;
                     message.editMessageEmbeds(new EmbedBuilder(embed)
-                        .addField("Database", time2 + " ms", true)
+                        .addField("Database", reachable ? time2 + " ms" : ":x:", true)
                         .build()
                     ).queue();
-                    database.close();
-                } catch (DatabaseException e) {
-                    message.editMessageEmbeds(new EmbedBuilder(embed)
-                        .addField("Database", ":x:", true)
-                        .build()
-                    ).queue();
-                }
+                });
             });
     }
 
@@ -188,9 +192,9 @@ public class ManagerComponent extends AbstractComponent implements GlobalCompone
             throw new BotWarningException("This component is always enabled");
         }
 
-        DatabaseManager.toggleComponent(getServer().getId(), componentString, true);
+        DatabaseManager.toggleComponentAsync(getServer().getId(), componentString, true);
         component.enable();
-        getServer().toggleComponent(component, true).queue();
+        getServer().updateCommands(false).queue();
         reply.send(Icon.ENABLE, "Component `%s` enabled", componentString);
         getServer().log(Colors.BLUE, command.getMember().getUser(),
             "Enabled component `%s`", componentString);
@@ -209,9 +213,9 @@ public class ManagerComponent extends AbstractComponent implements GlobalCompone
             direct.stop(reply);
         }
 
-        DatabaseManager.toggleComponent(getServer().getId(), componentString, false);
+        DatabaseManager.toggleComponentAsync(getServer().getId(), componentString, false);
         component.disable();
-        getServer().toggleComponent(component, false).queue();
+        getServer().updateCommands(false).queue();
         reply.send(Icon.DISABLE, "Component `%s` disabled", componentString);
         getServer().log(Colors.BLUE, command.getMember().getUser(),
             "Disabled component `%s`", componentString);
@@ -283,10 +287,7 @@ public class ManagerComponent extends AbstractComponent implements GlobalCompone
         if (component instanceof GlobalComponent) {
             throw new BotErrorException("Cannot reload this component");
         }
-        getServer().toggleComponent(component, false).queue(__ ->
-            getServer().toggleComponent(component, true).queue()
-        );
-        DatabaseManager.toggleComponent(getServer().getId(), component.getId(), true);
+        getServer().updateCommands(true).queue();
         reply.ok("Reloaded component `%s`", component.getId());
     }
 
@@ -354,6 +355,83 @@ public class ManagerComponent extends AbstractComponent implements GlobalCompone
             .build());
     }
 
+    private void getStats(@NotNull CommandEvent command, @NotNull InteractionReply reply) {
+        int count = command.hasOption("count") ? command.get("count").getAsInt() : 10;
+        List<CommandMetrics.Stats> slowest = CommandMetrics.getInstance().getSlowest(count);
+
+        if (slowest.isEmpty()) {
+            throw new BotWarningException("No commands have been recorded yet");
+        }
+
+        EmbedBuilder embed = new EmbedBuilder()
+            .setColor(Colors.TRANSPARENT)
+            .setTitle("Slowest commands")
+            .setFooter("Latencies since startup, across all servers");
+
+        for (CommandMetrics.Stats stats : slowest) {
+            LatencyHistogram histogram = stats.getHistogram();
+
+            StringBuilder value = new StringBuilder(String.format(Locale.ROOT,
+                "Calls: `%d`%np50: `%s`%np99: `%s`%nmax: `%s`",
+                histogram.getCount(),
+                formatMicros(histogram.getPercentile(0.5)),
+                formatMicros(histogram.getPercentile(0.99)),
+                formatMicros(histogram.getMax())
+            ));
+            if (stats.getQueries() > 0) {
+                value.append(String.format(Locale.ROOT, "%nQueries: `%.1f` per call, `%s` per call",
+                    (double) stats.getQueries() / histogram.getCount(),
+                    formatMicros(stats.getQueryMicros() / histogram.getCount())));
+            }
+            stats.getErrors().forEach((type, errors) ->
+                value.append(String.format(Locale.ROOT, "%n%s: `%d`", type, errors)));
+
+            embed.addField(stats.getComponent() + " " + stats.getCommand(), value.toString(), true);
+        }
+
+        RestScheduler scheduler = RestScheduler.getInstance();
+        StringBuilder queue = new StringBuilder(String.format(Locale.ROOT, "In flight: `%d`",
+            scheduler.getInFlight()));
+        for (RestScheduler.Priority priority : RestScheduler.Priority.values()) {
+            if (priority == RestScheduler.Priority.INTERACTION) {
+                continue;
+            }
+            LatencyHistogram waitTime = scheduler.getWaitTime(priority);
+            queue.append(String.format(Locale.ROOT, "%n%s: `%d` queued, p99 wait `%s`, max wait `%s`",
+                priority.name().toLowerCase(Locale.ROOT), scheduler.getQueueDepth(priority),
+                formatMicros(waitTime.getPercentile(0.99)), formatMicros(waitTime.getMax())));
+        }
+        embed.addField("Request queue", queue.toString(), false);
+
+        StringBuilder caches = new StringBuilder(String.format(Locale.ROOT,
+            "Request ids: `%d` signed, `%d` stored%n",
+            RequestManager.getSignedCount(), RequestManager.getStoredCount()));
+        CacheMetrics.getInstance().getAll().forEach((name, counters) -> caches.append(String.format(Locale.ROOT,
+            "%s: `%d` hits, `%d` misses, `%d` evictions%n",
+            name, counters.getHits(), counters.getMisses(), counters.getEvictions())));
+        embed.addField("Caches", caches.toString(), false);
+
+        StringBuilder queries = new StringBuilder();
+        for (QueryMetrics.Stats stats : QueryMetrics.getInstance().getSlowest(5)) {
+            LatencyHistogram histogram = stats.getHistogram();
+            long errors = stats.getErrors().values().stream().mapToLong(Long::longValue).sum();
+            queries.append(String.format(Locale.ROOT,
+                "%s: `%d` calls, `%d` rows, `%d` errors, p99 `%s`, max `%s`%n",
+                stats.getQuery(), histogram.getCount(), stats.getRows(), errors,
+                formatMicros(histogram.getPercentile(0.99)), formatMicros(histogram.getMax())));
+        }
+        if (!queries.isEmpty()) {
+            embed.addField("Slowest queries", queries.toString(), false);
+        }
+
+        reply.send(embed.build());
+    }
+
+    @NotNull
+    private static String formatMicros(long micros) {
+        return String.format(Locale.ROOT, "%.1f ms", micros / 1000.0);
+    }
+
     private void setManageRole(CommandEvent command, InteractionReply reply) {
         Role role = command.get("role").getAsRole();
 
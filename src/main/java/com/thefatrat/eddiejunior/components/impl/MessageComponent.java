@@ -8,6 +8,7 @@ import com.thefatrat.eddiejunior.exceptions.BotErrorException;
 import com.thefatrat.eddiejunior.exceptions.BotWarningException;
 import com.thefatrat.eddiejunior.sources.Server;
 import com.thefatrat.eddiejunior.util.Colors;
+import com.thefatrat.eddiejunior.util.ExpiringCache;
 import com.thefatrat.eddiejunior.util.PermissionChecker;
 import com.thefatrat.eddiejunior.util.URLUtil;
 import net.dv8tion.jda.api.EmbedBuilder;
@@ -28,11 +29,13 @@ import net.dv8tion.jda.api.utils.messages.MessageCreateData;
 import net.dv8tion.jda.api.utils.messages.MessageEditBuilder;
 import net.dv8tion.jda.api.utils.messages.MessageEditData;
 
+import java.time.Duration;
 import java.util.*;
 
 public class MessageComponent extends AbstractComponent {
 
-    private final Map<String, Message> clipboard = new HashMap<>();
+    private final ExpiringCache<String, Message> clipboard =
+        new ExpiringCache<>("clipboard", Duration.ofHours(1), 1000);
 
     public MessageComponent(Server server) {
         super(server, "Message");
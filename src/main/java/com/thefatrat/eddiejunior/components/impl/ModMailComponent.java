@@ -281,17 +281,12 @@ public class ModMailComponent extends DirectMessageComponent {
             }
         });
 
-        getServer().getButtonHandler().addListener((event, reply) -> {
-            String buttonId = event.getButtonId();
-            if (!buttonId.startsWith("modmail-")) {
-                return;
-            }
-
-            String[] split = buttonId.split("-");
-            String action = split[1];
+        getServer().getButtonHandler().addListener("modmail", (event, reply) -> {
+            String[] arguments = event.getArguments();
+            String action = arguments[0];
 
             if ("archive".equals(action)) {
-                String threadId = split[2];
+                String threadId = arguments[1];
                 ThreadChannel thread = getGuild().getThreadChannelById(threadId);
 
                 if (thread == null) {
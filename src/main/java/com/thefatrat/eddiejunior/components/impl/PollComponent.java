@@ -1,6 +1,11 @@
 package com.thefatrat.eddiejunior.components.impl;
 
-import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.thefatrat.eddiejunior.Initializer;
+import com.thefatrat.eddiejunior.RestScheduler;
+import com.thefatrat.eddiejunior.TimerService;
 import com.thefatrat.eddiejunior.components.AbstractComponent;
 import com.thefatrat.eddiejunior.entities.Command;
 import com.thefatrat.eddiejunior.entities.Interaction;
@@ -14,7 +19,10 @@ import com.thefatrat.eddiejunior.reply.InteractionReply;
 import com.thefatrat.eddiejunior.reply.MenuReply;
 import com.thefatrat.eddiejunior.sources.Server;
 import com.thefatrat.eddiejunior.util.Colors;
+import com.thefatrat.eddiejunior.util.DocumentCodec;
 import com.thefatrat.eddiejunior.util.EmojiUtil;
+import com.thefatrat.eddiejunior.util.LongIntMap;
+import com.thefatrat.eddiejunior.util.ObjectMapperProvider;
 import com.thefatrat.eddiejunior.util.PermissionChecker;
 import com.thefatrat.eddiejunior.util.URLUtil;
 import net.dv8tion.jda.api.EmbedBuilder;
@@ -23,6 +31,7 @@ import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.entities.MessageEmbed;
 import net.dv8tion.jda.api.entities.channel.ChannelType;
 import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.entities.channel.middleman.GuildMessageChannel;
 import net.dv8tion.jda.api.entities.channel.middleman.MessageChannel;
 import net.dv8tion.jda.api.entities.emoji.Emoji;
 import net.dv8tion.jda.api.exceptions.InsufficientPermissionException;
@@ -36,12 +45,14 @@ import net.dv8tion.jda.api.utils.messages.MessageEditBuilder;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
 import java.util.*;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 import java.util.regex.Pattern;
@@ -49,41 +60,39 @@ import java.util.stream.Collectors;
 
 public class PollComponent extends AbstractComponent {
 
+    private static final int COMPACT_THRESHOLD = 500;
+    private static final long COMPACT_INTERVAL = 10;
+    private static final long DEFAULT_LIVE_INTERVAL = 10;
+    private static final long MIN_LIVE_INTERVAL = 5;
+    private static final long LIVE_INTERVAL = TimeUnit.SECONDS.toNanos(getConfiguredLiveInterval());
+    private static final long CHANNEL_EDIT_SPACING = TimeUnit.SECONDS.toNanos(1);
+
     private final Map<String, Poll> polls = new HashMap<>();
-    private final ScheduledExecutorService executorService;
+    private final Map<String, TimerService.Timeout> expiries = new HashMap<>();
+    private final Map<String, TimerService.Timeout> liveUpdates = new HashMap<>();
+    private final Map<String, Long> lastLiveUpdates = new HashMap<>();
+    private final Map<String, Long> channelEditSlots = new HashMap<>();
+    private final TimerService.Timeout compaction;
 
     public PollComponent(Server server) {
         super(server, "Poll");
 
         polls.putAll(getDatabaseManager().getPolls());
         LocalDateTime now = LocalDateTime.now();
-        executorService = Executors.newScheduledThreadPool(1);
+        TimerService timer = TimerService.getInstance();
         for (Poll poll : polls.values()) {
             if (poll.expiry == null) {
                 continue;
             }
 
-            Message message = URLUtil.getMessageFromString(poll.channelId + "_" + poll.id, getGuild());
-            if (message == null) {
-                getDatabaseManager().removePoll(poll);
-                return;
-            }
-
-            Duration duration;
-
-            if (now.isAfter(poll.expiry)) {
-                duration = Duration.ZERO;
-            } else {
-                duration = Duration.between(now, poll.expiry);
-            }
-
-            executorService.schedule(() -> {
-                if (polls.containsKey(poll.id)) {
-                    this.closePoll(message, null);
-                }
-            }, duration.getSeconds(), TimeUnit.SECONDS);
+            // overdue polls expire on the first tick
+            Duration delay = now.isAfter(poll.expiry) ? Duration.ZERO : Duration.between(now, poll.expiry);
+            expiries.put(poll.id, timer.schedule(getServer(), delay, () -> expirePoll(poll.id)));
         }
 
+        compaction = timer.scheduleRepeating(getServer(), Duration.ofMinutes(COMPACT_INTERVAL),
+            this::compactPolls);
+
         setComponentCommand(PermissionEntity.RequiredPermission.MANAGE);
 
         addSubcommands(
@@ -98,7 +107,8 @@ public class PollComponent extends AbstractComponent {
                         .setMaxValue(100),
                     new OptionData(OptionType.CHANNEL, "channel", "channel that the poll will be sent in", false)
                         .setChannelTypes(ChannelType.TEXT),
-                    new OptionData(OptionType.STRING, "image", "image url", false)
+                    new OptionData(OptionType.STRING, "image", "image url", false),
+                    new OptionData(OptionType.BOOLEAN, "live", "show the running results on the poll", false)
                 )
                 .setAction(this::newPoll),
 
@@ -120,7 +130,7 @@ public class PollComponent extends AbstractComponent {
                 .setAction(this::recheckPolls)
         );
 
-        getServer().getButtonHandler().addListener(this::castVote);
+        getServer().getButtonHandler().addListener("poll", 2, this::castVote);
 
         addMessageInteractions(
             new Interaction<Message>("peek")
@@ -129,6 +139,18 @@ public class PollComponent extends AbstractComponent {
         );
     }
 
+    private static long getConfiguredLiveInterval() {
+        String property = Initializer.getInstance().getProperty("poll_live_interval");
+        if (property == null) {
+            return DEFAULT_LIVE_INTERVAL;
+        }
+        try {
+            return Math.max(MIN_LIVE_INTERVAL, Long.parseLong(property.strip()));
+        } catch (NumberFormatException e) {
+            return DEFAULT_LIVE_INTERVAL;
+        }
+    }
+
     private void listPolls(CommandEvent command, InteractionReply reply) {
         if (polls.isEmpty()) {
             throw new BotWarningException("There are no open polls");
@@ -178,7 +200,9 @@ public class PollComponent extends AbstractComponent {
 
         toRemove.forEach(poll -> {
             polls.remove(poll.id);
-            getDatabaseManager().removePoll(poll);
+            cancelExpiry(poll.id);
+            cancelLiveUpdate(poll.id);
+            getDatabaseManager().removePollAsync(poll);
         });
 
         if (polls.isEmpty()) {
@@ -274,6 +298,7 @@ public class PollComponent extends AbstractComponent {
         MessageEditBuilder edit = MessageEditBuilder.fromMessage(message);
         List<Button> buttons = new ArrayList<>();
         Set<String> ids = new HashSet<>();
+        List<String> labels = new ArrayList<>();
 
         String[] options = command.get("options").getAsString().split(", *");
 
@@ -285,31 +310,7 @@ public class PollComponent extends AbstractComponent {
                 throw new BotWarningException("Option `%s` is too long", option);
             }
 
-            Button temp = EmojiUtil.formatButton("p", option, ButtonStyle.SECONDARY);
-            String label;
-            if (temp.getLabel().isEmpty()) {
-                if (Objects.requireNonNull(temp.getEmoji()).getType().equals(Emoji.Type.UNICODE)) {
-                    String codepoints = temp.getEmoji().asUnicode().getAsCodepoints();
-
-                    label = Arrays.stream(codepoints.split("U\\+"))
-                        .map(s -> {
-                            try {
-                                return Integer.parseInt(s, 16);
-                            } catch (NumberFormatException e) {
-                                return null;
-                            }
-                        })
-                        .filter(Objects::nonNull)
-                        .filter(Character::isValidCodePoint)
-                        .map(Character::toString)
-                        .collect(Collectors.joining());
-                } else {
-                    label = temp.getEmoji().asCustom().getFormatted();
-                }
-
-            } else {
-                label = temp.getLabel();
-            }
+            String label = getLabel(option);
             String id = message.getId() + "-" + label;
 
             if (id.length() > Button.ID_MAX_LENGTH) {
@@ -319,6 +320,7 @@ public class PollComponent extends AbstractComponent {
             if (!ids.add(id)) {
                 throw new BotWarningException("All poll options should be unique");
             }
+            labels.add(label);
 
             buttons.add(
                 EmojiUtil.formatButton("poll-" + id, option, ButtonStyle.SECONDARY)
@@ -330,8 +332,9 @@ public class PollComponent extends AbstractComponent {
         }
 
         int maxPicks = command.hasOption("picks") ? command.get("picks").getAsInt() : 1;
-        Arrays.sort(options, String.CASE_INSENSITIVE_ORDER);
-        Poll poll = new Poll(message, maxPicks, options);
+        labels.sort(String.CASE_INSENSITIVE_ORDER);
+        Poll poll = new Poll(message, maxPicks, labels.toArray(String[]::new));
+        poll.live = command.hasOption("live") && command.get("live").getAsBoolean();
         polls.put(message.getId(), poll);
 
         List<ActionRow> rows = new ArrayList<>();
@@ -352,6 +355,11 @@ public class PollComponent extends AbstractComponent {
 
         edit.setComponents(rows);
 
+        if (poll.live) {
+            edit.setContent(renderLiveResults(poll));
+            lastLiveUpdates.put(poll.id, System.nanoTime());
+        }
+
         if (expiry != null) {
             poll.expiry = LocalDateTime.now().plus(expiry);
             MessageEmbed embed = new EmbedBuilder(edit.getEmbeds().get(0))
@@ -359,16 +367,46 @@ public class PollComponent extends AbstractComponent {
                 .build();
             edit.setEmbeds(embed);
 
-            executorService.schedule(() -> {
-                if (polls.containsKey(poll.id)) {
-                    this.closePoll(message, null);
-                }
-            }, expiry.getSeconds(), TimeUnit.SECONDS);
+            expiries.put(poll.id, TimerService.getInstance().schedule(getServer(), expiry,
+                () -> expirePoll(poll.id)));
         }
 
-        getDatabaseManager().setPoll(poll);
+        getDatabaseManager().setPollAsync(poll);
 
-        message.editMessage(edit.build()).queue();
+        RestScheduler.getInstance().queue(getGuild(), message.editMessage(edit.build()),
+            RestScheduler.Priority.USER);
+    }
+
+    /**
+     * Returns the label a poll option is voted for with, which is the part of the button id after the poll id.
+     * Options can start with an emoji followed by {@code |} and the label, or consist of only an emoji.
+     *
+     * @param option the option as it was given
+     * @return the label of the option
+     */
+    @NotNull
+    private static String getLabel(@NotNull String option) {
+        Button button = EmojiUtil.formatButton("p", option, ButtonStyle.SECONDARY);
+        if (!button.getLabel().isEmpty()) {
+            return button.getLabel();
+        }
+        if (Objects.requireNonNull(button.getEmoji()).getType().equals(Emoji.Type.UNICODE)) {
+            String codepoints = button.getEmoji().asUnicode().getAsCodepoints();
+
+            return Arrays.stream(codepoints.split("U\\+"))
+                .map(s -> {
+                    try {
+                        return Integer.parseInt(s, 16);
+                    } catch (NumberFormatException e) {
+                        return null;
+                    }
+                })
+                .filter(Objects::nonNull)
+                .filter(Character::isValidCodePoint)
+                .map(Character::toString)
+                .collect(Collectors.joining());
+        }
+        return button.getEmoji().asCustom().getFormatted();
     }
 
     /**
@@ -378,20 +416,21 @@ public class PollComponent extends AbstractComponent {
      * @param reply reply
      */
     private void castVote(ButtonEvent<Member> event, MenuReply reply) {
-        String label = event.getButtonId();
-        if (!label.startsWith("poll-")) {
-            return;
-        }
-        String[] split = label.split("-", 3);
-        String pollId = split[1];
+        String[] arguments = event.getArguments();
+        String pollId = arguments[0];
         if (!polls.containsKey(pollId)) {
             throw new BotErrorException("Unknown poll");
         }
 
-        String vote = split[2];
+        String vote = arguments[1];
         Poll poll = polls.get(pollId);
         int votesLeft = poll.addVote(event.getActor().getId(), vote);
-        getDatabaseManager().setPoll(poll);
+        getDatabaseManager().addPollVoteAsync(poll, poll.logVote(event.getActor().getId(), vote, votesLeft == -1));
+        if (poll.getUncompacted() >= COMPACT_THRESHOLD) {
+            poll.compact();
+            getDatabaseManager().compactPollAsync(poll);
+        }
+        scheduleLiveUpdate(poll);
         reply.hide();
         if (votesLeft == -1) {
             reply.ok("Successfully changed your vote to %s", vote);
@@ -400,6 +439,137 @@ public class PollComponent extends AbstractComponent {
         }
     }
 
+    /**
+     * Folds the logged votes of all polls into their stored documents.
+     */
+    private void compactPolls() {
+        for (Poll poll : polls.values()) {
+            if (poll.getUncompacted() > 0) {
+                poll.compact();
+                getDatabaseManager().compactPollAsync(poll);
+            }
+        }
+    }
+
+    /**
+     * Schedules an update of the results shown on the message of a live poll. Votes that come in before the
+     * update runs are included in it, and the message of a poll is edited at most once every
+     * {@code poll_live_interval} seconds. Edits of polls in the same channel are spaced out as well, as they
+     * share the rate limit bucket of the channel.
+     *
+     * @param poll the poll that got a vote
+     */
+    private void scheduleLiveUpdate(Poll poll) {
+        if (!poll.live || liveUpdates.containsKey(poll.id)) {
+            return;
+        }
+        long now = System.nanoTime();
+        long time = now;
+        Long last = lastLiveUpdates.get(poll.id);
+        if (last != null && last + LIVE_INTERVAL - time > 0) {
+            time = last + LIVE_INTERVAL;
+        }
+        Long slot = channelEditSlots.get(poll.channelId);
+        if (slot != null && slot - time > 0) {
+            time = slot;
+        }
+        channelEditSlots.put(poll.channelId, time + CHANNEL_EDIT_SPACING);
+
+        liveUpdates.put(poll.id, TimerService.getInstance().schedule(getServer(), Duration.ofNanos(time - now),
+            () -> updateLiveResults(poll.id)));
+    }
+
+    private void updateLiveResults(String pollId) {
+        liveUpdates.remove(pollId);
+        Poll poll = polls.get(pollId);
+        if (poll == null) {
+            return;
+        }
+        lastLiveUpdates.put(pollId, System.nanoTime());
+
+        GuildMessageChannel channel = getGuild().getChannelById(GuildMessageChannel.class, poll.channelId);
+        if (channel == null) {
+            return;
+        }
+        RestScheduler.getInstance().queue(getGuild(), channel.editMessageById(pollId, renderLiveResults(poll)),
+            RestScheduler.Priority.BACKGROUND);
+    }
+
+    private void cancelLiveUpdate(String pollId) {
+        lastLiveUpdates.remove(pollId);
+        TimerService.Timeout update = liveUpdates.remove(pollId);
+        if (update != null) {
+            update.cancel();
+        }
+    }
+
+    /**
+     * @return the message content that shows the running results of a live poll, leaving out the options with
+     * the fewest votes if it does not fit in a message
+     */
+    @NotNull
+    private static String renderLiveResults(Poll poll) {
+        String content = "**Live results**\n" + poll;
+        if (content.length() <= Message.MAX_CONTENT_LENGTH) {
+            return content;
+        }
+        int totals = content.lastIndexOf('\n', content.lastIndexOf('\n') - 1);
+        String tail = "\n…" + content.substring(totals);
+        int end = content.lastIndexOf('\n', Message.MAX_CONTENT_LENGTH - tail.length());
+        return content.substring(0, end) + tail;
+    }
+
+    /**
+     * Closes a poll whose expiry has passed. The poll message is not retrieved: its buttons are removed and
+     * the results are posted as a reply to it.
+     *
+     * @param pollId the id of the poll
+     */
+    private void expirePoll(String pollId) {
+        expiries.remove(pollId);
+        Poll poll = polls.remove(pollId);
+        if (poll == null) {
+            return;
+        }
+        cancelLiveUpdate(pollId);
+        getDatabaseManager().removePollAsync(poll);
+
+        GuildMessageChannel channel = getGuild().getChannelById(GuildMessageChannel.class, poll.channelId);
+        if (channel == null) {
+            return;
+        }
+        RestScheduler scheduler = RestScheduler.getInstance();
+        MessageEditBuilder edit = new MessageEditBuilder().setComponents();
+        if (poll.live) {
+            edit.setContent(null);
+        }
+        scheduler.queue(getGuild(), channel.editMessageById(poll.id, edit.build()), RestScheduler.Priority.USER);
+        scheduler.queue(getGuild(), channel.sendMessageEmbeds(new EmbedBuilder()
+                    .setTitle("Poll results")
+                    .setColor(Colors.TRANSPARENT)
+                    .setDescription(poll.toString())
+                    .build())
+                .setMessageReference(poll.id)
+                .mentionRepliedUser(false),
+            RestScheduler.Priority.USER);
+    }
+
+    private void cancelExpiry(String pollId) {
+        TimerService.Timeout expiry = expiries.remove(pollId);
+        if (expiry != null) {
+            expiry.cancel();
+        }
+    }
+
+    @Override
+    public void destroy() {
+        compaction.cancel();
+        expiries.values().forEach(TimerService.Timeout::cancel);
+        expiries.clear();
+        liveUpdates.values().forEach(TimerService.Timeout::cancel);
+        liveUpdates.clear();
+    }
+
     /**
      * Closes the poll and posts the poll results.
      *
@@ -420,9 +590,10 @@ public class PollComponent extends AbstractComponent {
             throw new BotErrorException("Couldn't find poll");
         }
 
-        Poll poll = polls.get(message.getId());
-        polls.remove(message.getId());
-        getDatabaseManager().removePoll(poll);
+        Poll poll = polls.remove(message.getId());
+        cancelExpiry(poll.id);
+        cancelLiveUpdate(poll.id);
+        getDatabaseManager().removePollAsync(poll);
 
         MessageEditBuilder edit = MessageEditBuilder.fromMessage(message)
             .setComponents()
@@ -434,7 +605,11 @@ public class PollComponent extends AbstractComponent {
                     .setDescription(poll.toString())
                     .build()
             );
-        message.editMessage(edit.build()).queue();
+        if (poll.live) {
+            edit.setContent(null);
+        }
+        RestScheduler.getInstance().queue(getGuild(), message.editMessage(edit.build()),
+            RestScheduler.Priority.USER);
 
         if (reply != null) {
             reply.hide();
@@ -466,69 +641,205 @@ public class PollComponent extends AbstractComponent {
         showPoll(message, reply);
     }
 
+    /**
+     * A vote in the vote log of a poll.
+     *
+     * @param sequence the position of the vote in the log of its poll
+     * @param user     the id of the voter
+     * @param choice   the chosen option
+     * @param replace  whether the vote replaces all earlier votes of the user, rather than adding to them
+     */
+    public record Vote(long sequence, String user, String choice, boolean replace) {
+    }
+
+    /**
+     * A poll and its votes. Votes are persisted as a log of {@link Vote}s, which is periodically folded into
+     * the stored document of the poll. The document records the sequence of the last vote folded into it.
+     * <p>
+     * Options are numbered in the order they were added, and the picks of a voter are kept as a bitmask of
+     * option numbers. The number of votes per option is updated with every vote, so that the results do not
+     * depend on the number of voters.
+     */
     public static class Poll {
 
+        /**
+         * Writes polls with snowflakes as numbers and picks as bitmasks, and reads polls that were stored as
+         * JSON.
+         */
+        public static final DocumentCodec<Poll> CODEC = new Codec();
+
+        private static final int MAX_CHOICES = Integer.SIZE - 1;
+
         private String id;
         private String channelId;
-        private final Set<String> choices = new HashSet<>();
-        private final Map<String, Set<String>> votes = new HashMap<>();
+        private final List<String> choices = new ArrayList<>();
+        private int[] counts = new int[0];
+        private final LongIntMap votes = new LongIntMap();
         private LocalDateTime expiry;
         private int maxPicks;
+        private boolean live = false;
+        private long sequence = 0;
+        private long compactedSequence = 0;
 
-        @SuppressWarnings("unused")
         private Poll() {}
 
         public Poll(Message message, int maxPicks, String @NotNull ... choices) {
-            this.id = message.getId();
-            this.channelId = message.getChannelId();
+            this(message.getId(), message.getChannelId(), maxPicks, choices);
+        }
+
+        Poll(String id, String channelId, int maxPicks, String @NotNull ... choices) {
+            this.id = id;
+            this.channelId = channelId;
             this.maxPicks = maxPicks;
-            Collections.addAll(this.choices, choices);
+            for (String choice : choices) {
+                addChoice(choice);
+            }
+        }
+
+        /**
+         * Looks up the number of an option, adding the option if the poll does not have it yet.
+         *
+         * @return the number, or -1 if the poll has no room for more options
+         */
+        private int addChoice(String choice) {
+            int index = choices.indexOf(choice);
+            if (index != -1 || choices.size() >= MAX_CHOICES) {
+                return index;
+            }
+            choices.add(choice);
+            counts = Arrays.copyOf(counts, choices.size());
+            return choices.size() - 1;
+        }
+
+        /**
+         * Adds an option of a poll that was stored before polls kept the labels of their options. Such polls
+         * kept the options as they were given, which differ from the labels voted with when the option has an
+         * emoji.
+         *
+         * @return the number, or -1 if the poll has no room for more options
+         */
+        private int addLegacyChoice(String choice) {
+            if (choice.isBlank()) {
+                return -1;
+            }
+            try {
+                return addChoice(getLabel(choice));
+            } catch (IllegalArgumentException e) {
+                return addChoice(choice);
+            }
+        }
+
+        /**
+         * Sets the picks of a user, and updates the counts of the options that were added or removed.
+         */
+        private void setPicks(long user, int picks) {
+            int previous = votes.put(user, picks);
+            int changed = previous ^ picks;
+            while (changed != 0) {
+                int index = Integer.numberOfTrailingZeros(changed);
+                counts[index] += (picks & (1 << index)) != 0 ? 1 : -1;
+                changed &= changed - 1;
+            }
         }
 
         public int addVote(String user, String vote) {
-            Set<String> userVotes = votes.get(user);
+            int index = choices.indexOf(vote);
+            if (index == -1) {
+                throw new BotErrorException("Unknown option");
+            }
+            long userId = Long.parseLong(user);
+            int bit = 1 << index;
+            int picks = votes.get(userId);
 
-            if (userVotes == null) {
-                userVotes = new HashSet<>();
-                userVotes.add(vote);
-                votes.put(user, userVotes);
-                return maxPicks - userVotes.size();
+            if (picks == 0) {
+                setPicks(userId, bit);
+                return maxPicks - 1;
             }
 
             if (maxPicks == 1) {
-                if (userVotes.contains(vote)) {
+                if ((picks & bit) != 0) {
                     throw new BotWarningException("Already voted for %s", vote);
                 }
-                userVotes.clear();
-                userVotes.add(vote);
+                setPicks(userId, bit);
                 return -1;
             }
 
-            if (userVotes.size() >= maxPicks) {
+            if (Integer.bitCount(picks) >= maxPicks) {
                 throw new BotWarningException("You already used %d/%d votes", maxPicks, maxPicks);
             }
 
-            if (!userVotes.add(vote)) {
+            if ((picks & bit) != 0) {
                 throw new BotWarningException("You already voted for `%s`", vote);
             }
 
-            return maxPicks - userVotes.size();
+            setPicks(userId, picks | bit);
+            return maxPicks - Integer.bitCount(picks | bit);
         }
 
-        @JsonIgnore
-        public Map<String, Integer> getResults() {
-            Map<String, Integer> results = new HashMap<>();
-            choices.forEach(choice -> results.put(choice, 0));
+        /**
+         * Creates the log entry of a vote that was just added with {@link #addVote(String, String)}.
+         *
+         * @param replace whether the vote replaced the earlier votes of the user
+         */
+        @NotNull
+        public Vote logVote(String user, String choice, boolean replace) {
+            return new Vote(++sequence, user, choice, replace);
+        }
 
-            for (Set<String> set : votes.values()) {
-                for (String vote : set) {
-                    results.computeIfPresent(vote, (v, c) -> c + 1);
-                }
+        /**
+         * Replays a vote from the vote log. Votes that are already part of the document are skipped.
+         *
+         * @param vote the vote
+         */
+        public void apply(@NotNull Vote vote) {
+            sequence = Math.max(sequence, vote.sequence());
+            if (vote.sequence() <= compactedSequence) {
+                return;
+            }
+            int index = choices.indexOf(vote.choice());
+            if (index == -1) {
+                return;
             }
+            long user = Long.parseLong(vote.user());
+            setPicks(user, vote.replace() ? 1 << index : votes.get(user) | 1 << index);
+        }
+
+        /**
+         * Marks all logged votes as part of the document, before it is written.
+         */
+        public void compact() {
+            compactedSequence = sequence;
+        }
 
+        public long getCompactedSequence() {
+            return compactedSequence;
+        }
+
+        /**
+         * @return the number of logged votes that are not yet part of the stored document
+         */
+        public long getUncompacted() {
+            return sequence - compactedSequence;
+        }
+
+        /**
+         * @return the number of votes per option, in the order of the options
+         */
+        public Map<String, Integer> getResults() {
+            Map<String, Integer> results = new LinkedHashMap<>();
+            for (int i = 0; i < choices.size(); i++) {
+                results.merge(choices.get(i), counts[i], Integer::sum);
+            }
             return results;
         }
 
+        /**
+         * @return the number of users that voted
+         */
+        public int getVoterCount() {
+            return votes.size();
+        }
+
         public String getId() {
             return id;
         }
@@ -546,11 +857,196 @@ public class PollComponent extends AbstractComponent {
                 })
                 .sum();
 
-            int userCount = votes.size();
+            int userCount = getVoterCount();
             return String.join("\n", resultStrings.toArray(String[]::new))
                 + "\nTotal votes: " + total + "\nTotal users: " + userCount;
         }
 
+        /**
+         * The readable form of a poll, with the picks of every voter as option labels.
+         */
+        @SuppressWarnings("unused")
+        private static class Document {
+
+            private String id;
+            private String channelId;
+            private List<String> choices = new ArrayList<>();
+            private Map<String, List<String>> votes = new HashMap<>();
+            private LocalDateTime expiry;
+            private int maxPicks;
+            private boolean live;
+            private long sequence;
+            private long compactedSequence;
+
+        }
+
+        private static class Codec extends DocumentCodec<Poll> {
+
+            private static final ObjectReader READER = ObjectMapperProvider.OBJECT_MAPPER.readerFor(Document.class);
+            private static final ObjectWriter WRITER = ObjectMapperProvider.OBJECT_MAPPER.writerFor(Document.class);
+
+            private Codec() {
+                super(3);
+            }
+
+            @Override
+            protected void write(@NotNull DataOutputStream out, @NotNull Poll poll) throws IOException {
+                writeSnowflake(out, poll.id);
+                writeSnowflake(out, poll.channelId);
+                writeVarInt(out, poll.maxPicks);
+                writeVarInt(out, poll.sequence);
+                writeVarInt(out, poll.compactedSequence);
+                if (poll.expiry == null) {
+                    out.writeBoolean(false);
+                } else {
+                    out.writeBoolean(true);
+                    out.writeLong(poll.expiry.toEpochSecond(ZoneOffset.UTC));
+                    writeVarInt(out, poll.expiry.getNano());
+                }
+                out.writeBoolean(poll.live);
+
+                writeVarInt(out, poll.choices.size());
+                for (String choice : poll.choices) {
+                    writeString(out, choice);
+                }
+
+                writeVarInt(out, poll.votes.size());
+                IOException[] error = new IOException[1];
+                poll.votes.forEach((user, picks) -> {
+                    try {
+                        out.writeLong(user);
+                        writeVarInt(out, Integer.toUnsignedLong(picks));
+                    } catch (IOException e) {
+                        error[0] = e;
+                    }
+                });
+                if (error[0] != null) {
+                    throw error[0];
+                }
+            }
+
+            @NotNull
+            @Override
+            protected Poll read(@NotNull DataInputStream in, int version) throws IOException {
+                Poll poll = new Poll();
+                poll.id = readSnowflake(in);
+                poll.channelId = readSnowflake(in);
+                poll.maxPicks = (int) readVarInt(in);
+                poll.sequence = readVarInt(in);
+                poll.compactedSequence = readVarInt(in);
+                if (in.readBoolean()) {
+                    poll.expiry = LocalDateTime.ofEpochSecond(in.readLong(), (int) readVarInt(in), ZoneOffset.UTC);
+                }
+                if (version >= 3) {
+                    poll.live = in.readBoolean();
+                }
+
+                // the first version kept options as they were given, which may map to the same label or none
+                int[] choiceIndexes = new int[(int) readVarInt(in)];
+                for (int i = 0; i < choiceIndexes.length; i++) {
+                    String choice = readString(in);
+                    choiceIndexes[i] = version == 1 ? poll.addLegacyChoice(choice) : poll.addChoice(choice);
+                }
+
+                long userCount = readVarInt(in);
+                for (long i = 0; i < userCount; i++) {
+                    long user = in.readLong();
+                    int picks = version == 1 ? readVersion1Picks(in, poll, choiceIndexes) : (int) readVarInt(in);
+                    if (picks >>> poll.choices.size() != 0) {
+                        throw new IOException("Unknown choice");
+                    }
+                    poll.setPicks(user, picks);
+                }
+                return poll;
+            }
+
+            /**
+             * Reads the picks of a voter in the first version of the format, which lists the option numbers
+             * plus one, or 0 followed by the label if the label was not an option.
+             *
+             * @param choiceIndexes the number of each stored option in the poll
+             */
+            private static int readVersion1Picks(@NotNull DataInputStream in, @NotNull Poll poll,
+                int @NotNull [] choiceIndexes) throws IOException {
+                int picks = 0;
+                int count = (int) readVarInt(in);
+                for (int j = 0; j < count; j++) {
+                    int index = (int) readVarInt(in) - 1;
+                    if (index == -1) {
+                        index = poll.addChoice(readString(in));
+                    } else if (index < choiceIndexes.length) {
+                        index = choiceIndexes[index];
+                    } else {
+                        throw new IOException("Unknown choice " + index);
+                    }
+                    if (index != -1) {
+                        picks |= 1 << index;
+                    }
+                }
+                return picks;
+            }
+
+            @NotNull
+            @Override
+            protected String toText(@NotNull Poll poll) {
+                Document document = new Document();
+                document.id = poll.id;
+                document.channelId = poll.channelId;
+                document.choices = new ArrayList<>(poll.choices);
+                poll.votes.forEach((user, picks) -> {
+                    List<String> labels = new ArrayList<>(Integer.bitCount(picks));
+                    for (int bits = picks; bits != 0; bits &= bits - 1) {
+                        labels.add(poll.choices.get(Integer.numberOfTrailingZeros(bits)));
+                    }
+                    document.votes.put(Long.toUnsignedString(user), labels);
+                });
+                document.expiry = poll.expiry;
+                document.maxPicks = poll.maxPicks;
+                document.live = poll.live;
+                document.sequence = poll.sequence;
+                document.compactedSequence = poll.compactedSequence;
+                try {
+                    return WRITER.writeValueAsString(document);
+                } catch (JsonProcessingException e) {
+                    throw new IllegalArgumentException("Invalid poll", e);
+                }
+            }
+
+            @NotNull
+            @Override
+            protected Poll fromText(@NotNull String text) {
+                Document document;
+                try {
+                    document = READER.readValue(text);
+                } catch (JsonProcessingException e) {
+                    throw new IllegalArgumentException("Invalid poll", e);
+                }
+                Poll poll = new Poll();
+                poll.id = document.id;
+                poll.channelId = document.channelId;
+                poll.expiry = document.expiry;
+                poll.maxPicks = document.maxPicks;
+                poll.live = document.live;
+                poll.sequence = document.sequence;
+                poll.compactedSequence = document.compactedSequence;
+                document.choices.forEach(poll::addLegacyChoice);
+                document.votes.forEach((user, labels) -> {
+                    int picks = 0;
+                    for (String label : labels) {
+                        int index = poll.addChoice(label);
+                        if (index != -1) {
+                            picks |= 1 << index;
+                        }
+                    }
+                    if (picks != 0) {
+                        poll.setPicks(Long.parseUnsignedLong(user), picks);
+                    }
+                });
+                return poll;
+            }
+
+        }
+
     }
 
     @Override
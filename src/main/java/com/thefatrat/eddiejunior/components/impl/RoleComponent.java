@@ -1,5 +1,6 @@
 package com.thefatrat.eddiejunior.components.impl;
 
+import com.thefatrat.eddiejunior.RestScheduler;
 import com.thefatrat.eddiejunior.components.AbstractComponent;
 import com.thefatrat.eddiejunior.entities.Command;
 import com.thefatrat.eddiejunior.entities.PermissionEntity;
@@ -45,7 +46,7 @@ public class RoleComponent extends AbstractComponent {
 
         setComponentCommand(PermissionEntity.RequiredPermission.MANAGE);
 
-        getServer().getButtonHandler().addListener(this::handleButton);
+        getServer().getButtonHandler().addListener("roles", this::handleButton);
 
         addSubcommands(
             new Command("message", "create a message with buttons for a specific role")
@@ -129,17 +130,12 @@ public class RoleComponent extends AbstractComponent {
      * @param reply reply
      */
     private void handleButton(ButtonEvent<Member> event, MenuReply reply) {
-        String buttonId = event.getButtonId();
-        if (!buttonId.startsWith("roles-")) {
-            return;
-        }
-
         if (!isEnabled()) {
             throw new BotErrorException("Could not assign/remove at the moment");
         }
 
-        String[] split = buttonId.split("-");
-        String roleId = split[2];
+        String[] arguments = event.getArguments();
+        String roleId = arguments[1];
         Role role = getGuild().getRoleById(roleId);
 
         if (role == null || role.isManaged() || role.isPublicRole()) {
@@ -156,23 +152,25 @@ public class RoleComponent extends AbstractComponent {
         Member member = event.getActor();
 
         reply.hide();
-        if ("1".equals(split[1])) {
+        if ("1".equals(arguments[0])) {
             if (member.getRoles().contains(role)) {
                 throw new BotWarningException("You already have the " + role.getAsMention() + " role");
             }
-            getGuild().addRoleToMember(member, role).queue(success -> {
+            RestScheduler.getInstance().queue(getGuild(), getGuild().addRoleToMember(member, role),
+                RestScheduler.Priority.USER, success -> {
                 reply.ok("You received role " + role.getAsMention());
-                getServer().log("Gave role %s (`%s`) to %s (`%s`) (`%s`)", role.getAsMention(), role.getId(),
+                getServer().logVerbose("Gave role %s (`%s`) to %s (`%s`) (`%s`)", role.getAsMention(), role.getId(),
                     member.getAsMention(), member.getUser().getEffectiveName(), member.getId());
             });
         } else {
             if (!member.getRoles().contains(role)) {
                 throw new BotWarningException("You do not have the " + role.getAsMention() + " role");
             }
-            getGuild().removeRoleFromMember(member, role).queue(success -> {
+            RestScheduler.getInstance().queue(getGuild(), getGuild().removeRoleFromMember(member, role),
+                RestScheduler.Priority.USER, success -> {
                 reply.ok("Role " + role.getAsMention() + " has been removed");
-                getServer().log("Removed role %s (`%s`) from %s (`%s`) (`%s`)", role.getAsMention(), role.getId(),
-                    member.getAsMention(), member.getUser().getEffectiveName(), member.getId());
+                getServer().logVerbose("Removed role %s (`%s`) from %s (`%s`) (`%s`)", role.getAsMention(),
+                    role.getId(), member.getAsMention(), member.getUser().getEffectiveName(), member.getId());
             });
         }
     }
@@ -339,7 +337,8 @@ public class RoleComponent extends AbstractComponent {
 
         for (Role role : roles) {
             if (userRoles.contains(role)) {
-                getGuild().removeRoleFromMember(member, role).queue(c -> {
+                RestScheduler.getInstance().queue(getGuild(), getGuild().removeRoleFromMember(member, role),
+                    RestScheduler.Priority.USER, c -> {
 
                     reply.ok("Removed role %s from %s", role.getAsMention(), member.getAsMention());
 
@@ -348,7 +347,8 @@ public class RoleComponent extends AbstractComponent {
                 });
 
             } else {
-                getGuild().addRoleToMember(member, role).queue(c -> {
+                RestScheduler.getInstance().queue(getGuild(), getGuild().addRoleToMember(member, role),
+                    RestScheduler.Priority.USER, c -> {
                     reply.ok("Gave role %s to %s", role.getAsMention(), member.getAsMention());
 
                     getServer().log(command.getMember().getUser(), "Gave role %s (`%s`) to %s (`%s`)",
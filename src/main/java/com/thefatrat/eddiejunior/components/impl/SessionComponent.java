@@ -1,5 +1,6 @@
 package com.thefatrat.eddiejunior.components.impl;
 
+import com.thefatrat.eddiejunior.RestScheduler;
 import com.thefatrat.eddiejunior.components.AbstractComponent;
 import com.thefatrat.eddiejunior.entities.Command;
 import com.thefatrat.eddiejunior.entities.PermissionEntity;
@@ -9,6 +10,7 @@ import com.thefatrat.eddiejunior.reply.Reply;
 import com.thefatrat.eddiejunior.sources.Server;
 import com.thefatrat.eddiejunior.util.Colors;
 import com.thefatrat.eddiejunior.util.Icon;
+import com.thefatrat.eddiejunior.util.LazyMessage;
 import com.thefatrat.eddiejunior.util.URLUtil;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.Permission;
@@ -24,6 +26,9 @@ import net.dv8tion.jda.internal.utils.PermissionUtil;
 import org.jetbrains.annotations.NotNull;
 
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.stream.Collectors;
 
 public class SessionComponent extends AbstractComponent {
 
@@ -35,7 +40,7 @@ public class SessionComponent extends AbstractComponent {
         Permission.VIEW_CHANNEL,
         Permission.MANAGE_PERMISSIONS};
 
-    private final Map<String, Map<String, Message>> sessions = new HashMap<>();
+    private final Map<String, Map<String, LazyMessage>> sessions = new HashMap<>();
 
     public SessionComponent(Server server) {
         super(server, NAME);
@@ -43,13 +48,12 @@ public class SessionComponent extends AbstractComponent {
         {
             List<String> list = getDatabaseManager().getSettings("session");
             for (String session : list) {
-                Map<String, Message> map = new HashMap<>();
+                Map<String, LazyMessage> map = new HashMap<>();
                 sessions.put(session, map);
                 List<String> ids = getDatabaseManager().getSettings("session_" + session);
                 for (String id : ids) {
                     String messageString = getDatabaseManager().getSetting("message_" + session + "_" + id);
-                    Message message = URLUtil.getMessageFromString(messageString, getGuild());
-                    map.put(id, message);
+                    map.put(id, LazyMessage.fromString(messageString, getGuild()));
                 }
             }
         }
@@ -121,7 +125,7 @@ public class SessionComponent extends AbstractComponent {
                     }
                     TextChannel channel = command.get("channel").getAsChannel().asTextChannel();
                     String channelId = channel.getId();
-                    Map<String, Message> map = sessions.get(session);
+                    Map<String, LazyMessage> map = sessions.get(session);
                     if (!map.containsKey(channelId)) {
                         throw new BotErrorException("Channel %s is not a part of session `%s`",
                             channel.getAsMention(), session);
@@ -130,7 +134,7 @@ public class SessionComponent extends AbstractComponent {
                     String url = command.get("message").getAsString();
                     Message message = URLUtil.messageFromURL(url, getGuild());
                     String messageString = message.getChannel().getId() + "_" + message.getId();
-                    map.put(channelId, message);
+                    map.put(channelId, LazyMessage.of(message));
                     getDatabaseManager().setSetting("message_" + session + "_" + channelId, messageString);
                     reply.ok("Set message for session `%s`", session);
                 }),
@@ -148,7 +152,7 @@ public class SessionComponent extends AbstractComponent {
                     }
                     TextChannel channel = command.get("channel").getAsChannel().asTextChannel();
 
-                    Map<String, Message> map = sessions.get(session);
+                    Map<String, LazyMessage> map = sessions.get(session);
                     if (!map.containsKey(channel.getId())) {
                         throw new BotErrorException("Channel %s is not a part of session `%s`",
                             channel.getAsMention(), session);
@@ -176,7 +180,7 @@ public class SessionComponent extends AbstractComponent {
                     }
                     if (command.hasOption("channel")) {
                         IMentionable channel = command.get("channel").getAsChannel();
-                        Map<String, Message> session = sessions.get(string);
+                        Map<String, LazyMessage> session = sessions.get(string);
                         if (!session.containsKey(channel.getId())) {
                             throw new BotErrorException("The given channel is a not part of the session");
                         }
@@ -207,13 +211,13 @@ public class SessionComponent extends AbstractComponent {
                         throw new BotErrorException(ERROR_SESSION_NONEXISTENT);
                     }
 
-                    Map<String, Message> session = sessions.get(string);
+                    Map<String, LazyMessage> session = sessions.get(string);
                     Guild guild = getGuild();
                     List<String> channels = new ArrayList<>();
-                    for (Map.Entry<String, Message> entry : session.entrySet()) {
+                    for (Map.Entry<String, LazyMessage> entry : session.entrySet()) {
                         IMentionable channel = guild.getGuildChannelById(entry.getKey());
                         if (channel != null) {
-                            Message message = entry.getValue();
+                            LazyMessage message = entry.getValue();
                             String listString = channel.getAsMention();
                             if (message != null) {
                                 listString += " Message: <" + message.getJumpUrl() + ">";
@@ -274,7 +278,7 @@ public class SessionComponent extends AbstractComponent {
     }
 
     public void openSession(String session, Reply reply) {
-        Map<String, Message> sessionChannels = sessions.get(session);
+        Map<String, LazyMessage> sessionChannels = sessions.get(session);
         Guild guild = getGuild();
         List<RestAction<PermissionOverride>> actions = new ArrayList<>();
         for (String id : sessionChannels.keySet()) {
@@ -289,23 +293,24 @@ public class SessionComponent extends AbstractComponent {
             }
         }
 
-        String[] array = executeOnChannels(session, actions);
-        String joined = String.join(", ", array);
-
-        reply.ok("Session `%s` started.%n" +
-            "The following channels have been made public:%n%s", session, joined);
-
-        for (Map.Entry<String, Message> entry : sessionChannels.entrySet()) {
-            TextChannel channel = guild.getTextChannelById(entry.getKey());
-            if (channel != null && channel.canTalk()) {
-                Message message = entry.getValue();
-                if (message != null) {
-                    channel.sendMessage(MessageCreateData.fromMessage(message)).queue();
+        executeOnChannels(session, actions, reply, joined -> {
+            reply.ok("Session `%s` started.%n" +
+                "The following channels have been made public:%n%s", session, joined);
+
+            for (Map.Entry<String, LazyMessage> entry : sessionChannels.entrySet()) {
+                TextChannel channel = guild.getTextChannelById(entry.getKey());
+                LazyMessage message = entry.getValue();
+                if (channel != null && channel.canTalk() && message != null) {
+                    message.resolve().thenAccept(m -> {
+                        if (m != null) {
+                            channel.sendMessage(MessageCreateData.fromMessage(m)).queue();
+                        }
+                    });
                 }
             }
-        }
 
-        getServer().log("Opened %s", joined);
+            getServer().log("Opened %s", joined);
+        });
     }
 
     public void closeSession(String session, Reply reply) {
@@ -324,19 +329,28 @@ public class SessionComponent extends AbstractComponent {
             }
         }
 
-        String[] array = executeOnChannels(session, actions);
-        String joined = String.join(", ", array);
-
-        reply.send(Icon.STOP, "Session `%s` stopped.%n" +
-            "The following channels have been made private:%n%s", session, joined);
-        getServer().log("Closed %s", joined);
+        executeOnChannels(session, actions, reply, joined -> {
+            reply.send(Icon.STOP, "Session `%s` stopped.%n" +
+                "The following channels have been made private:%n%s", session, joined);
+            getServer().log("Closed %s", joined);
+        });
     }
 
     public boolean isSession(String session) {
         return sessions.containsKey(session);
     }
 
-    private String[] executeOnChannels(String session, @NotNull List<RestAction<PermissionOverride>> actions) {
+    /**
+     * Updates the permission overrides of the channels of a session. The requests are not waited for in the
+     * mailbox of the server: the callback runs in the mailbox once all of them completed.
+     *
+     * @param session  the session
+     * @param actions  the updates of the permission overrides
+     * @param reply    the reply, which is sent an error if an update failed
+     * @param callback the callback, given the mentions of the updated channels
+     */
+    private void executeOnChannels(String session, @NotNull List<RestAction<PermissionOverride>> actions,
+        @NotNull Reply reply, @NotNull Consumer<String> callback) {
         if (actions.isEmpty()) {
             sessions.remove(session);
             removeSessionFromDatabase(session);
@@ -344,14 +358,24 @@ public class SessionComponent extends AbstractComponent {
                 "The given session did not have existing channels and has been removed");
         }
 
-        List<PermissionOverride> overrides = RestAction.allOf(actions).complete();
+        reply.defer();
 
-        List<String> channels = new ArrayList<>();
-        for (PermissionOverride override : overrides) {
-            channels.add(override.getChannel().getAsMention());
+        List<CompletableFuture<PermissionOverride>> overrides = new ArrayList<>(actions.size());
+        for (RestAction<PermissionOverride> action : actions) {
+            overrides.add(RestScheduler.getInstance().submit(getGuild(), action, RestScheduler.Priority.USER));
         }
 
-        return channels.toArray(String[]::new);
+        CompletableFuture.allOf(overrides.toArray(CompletableFuture[]::new))
+            .whenComplete((__, e) -> getServer().execute(() -> {
+                if (e != null) {
+                    reply.send(new BotErrorException("Could not update the channels of session `%s`", session));
+                    return;
+                }
+                String joined = overrides.stream()
+                    .map(override -> override.join().getChannel().getAsMention())
+                    .collect(Collectors.joining(", "));
+                callback.accept(joined);
+            }));
     }
 
     private void checkPermissions(GuildChannel channel) {
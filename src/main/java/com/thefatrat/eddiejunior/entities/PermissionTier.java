@@ -0,0 +1,27 @@
+package com.thefatrat.eddiejunior.entities;
+
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * The highest permission a member has, in increasing order.
+ */
+public enum PermissionTier {
+
+    NONE, USE, MANAGE, ADMIN;
+
+    /**
+     * @param requiredPermission the required permission
+     * @return whether this tier grants the required permission, which is never the case if it is {@code null}
+     */
+    public boolean allows(@Nullable PermissionEntity.RequiredPermission requiredPermission) {
+        if (requiredPermission == null) {
+            return false;
+        }
+        return switch (requiredPermission) {
+            case USE -> this.compareTo(USE) >= 0;
+            case MANAGE -> this.compareTo(MANAGE) >= 0;
+            case ADMIN -> this == ADMIN;
+        };
+    }
+
+}
@@ -6,11 +6,13 @@ public class ButtonEvent<T> {
 
     private final T actor;
     private final String buttonId;
+    private final String[] arguments;
     private final Message message;
 
-    public ButtonEvent(T actor, String buttonId, Message message) {
+    public ButtonEvent(T actor, String buttonId, String[] arguments, Message message) {
         this.actor = actor;
         this.buttonId = buttonId;
+        this.arguments = arguments;
         this.message = message;
     }
 
@@ -22,6 +24,13 @@ public class ButtonEvent<T> {
         return buttonId;
     }
 
+    /**
+     * @return the segments of the button id following the prefix it was routed by
+     */
+    public String[] getArguments() {
+        return arguments;
+    }
+
     public Message getMessage() {
         return message;
     }
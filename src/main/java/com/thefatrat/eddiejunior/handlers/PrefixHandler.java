@@ -0,0 +1,98 @@
+package com.thefatrat.eddiejunior.handlers;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Routes custom ids of the form {@code prefix-arg-arg} to the listener registered for the longest matching
+ * prefix. Prefixes consist of whole segments separated by {@code -}, and the remaining segments of the id are
+ * passed on as the arguments of the event.
+ */
+public class PrefixHandler<T, R> {
+
+    private static final char SEPARATOR = '-';
+
+    private final Node<T, R> root = new Node<>();
+    private BiConsumer<T, R> defaultListener = null;
+
+    public void addListener(String prefix, BiConsumer<T, R> listener) {
+        addListener(prefix, 0, listener);
+    }
+
+    /**
+     * @param prefix   the prefix, one or more segments separated by {@code -}
+     * @param limit    the maximum amount of arguments to split the rest of the id into, where the last argument
+     *                 holds the remainder, or {@code 0} for no limit
+     * @param listener the listener
+     */
+    public void addListener(String prefix, int limit, BiConsumer<T, R> listener) {
+        Node<T, R> node = root;
+        int start = 0;
+        while (start <= prefix.length()) {
+            int end = nextSeparator(prefix, start);
+            node = node.children.computeIfAbsent(prefix.substring(start, end), k -> new Node<>());
+            start = end + 1;
+        }
+        node.listener = listener;
+        node.limit = limit;
+    }
+
+    /**
+     * Sets the listener that receives ids which do not match any prefix. It is given all segments of the id
+     * as arguments.
+     *
+     * @param listener the listener
+     */
+    public void setDefaultListener(BiConsumer<T, R> listener) {
+        defaultListener = listener;
+    }
+
+    public void handle(String id, Function<String[], T> event, R reply) {
+        Node<T, R> node = root;
+        Node<T, R> match = null;
+        int matchEnd = -1;
+        int start = 0;
+
+        while (start <= id.length()) {
+            int end = nextSeparator(id, start);
+            node = node.children.get(id.substring(start, end));
+            if (node == null) {
+                break;
+            }
+            if (node.listener != null) {
+                match = node;
+                matchEnd = end;
+            }
+            start = end + 1;
+        }
+
+        if (match != null) {
+            match.listener.accept(event.apply(split(id, matchEnd + 1, match.limit)), reply);
+        } else if (defaultListener != null) {
+            defaultListener.accept(event.apply(split(id, 0, 0)), reply);
+        }
+    }
+
+    private static int nextSeparator(String string, int start) {
+        int index = string.indexOf(SEPARATOR, start);
+        return index == -1 ? string.length() : index;
+    }
+
+    private static String[] split(String id, int start, int limit) {
+        if (start >= id.length()) {
+            return new String[0];
+        }
+        return id.substring(start).split(String.valueOf(SEPARATOR), limit);
+    }
+
+    private static class Node<T, R> {
+
+        private final Map<String, Node<T, R>> children = new HashMap<>();
+        private BiConsumer<T, R> listener = null;
+        private int limit = 0;
+
+    }
+
+}
@@ -0,0 +1,71 @@
+package com.thefatrat.eddiejunior.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit, miss and eviction counts of caches by name, summed over all instances across all servers.
+ */
+public class CacheMetrics {
+
+    private static final CacheMetrics instance = new CacheMetrics();
+
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    public static CacheMetrics getInstance() {
+        return instance;
+    }
+
+    private CacheMetrics() {
+    }
+
+    @NotNull
+    public Counters getCounters(@NotNull String name) {
+        return counters.computeIfAbsent(name, k -> new Counters());
+    }
+
+    /**
+     * @return the counters of all caches, sorted by name
+     */
+    @NotNull
+    public Map<String, Counters> getAll() {
+        return new TreeMap<>(counters);
+    }
+
+    public static class Counters {
+
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+        private final LongAdder evictions = new LongAdder();
+
+        public void hit() {
+            hits.increment();
+        }
+
+        public void miss() {
+            misses.increment();
+        }
+
+        public void evict() {
+            evictions.increment();
+        }
+
+        public long getHits() {
+            return hits.sum();
+        }
+
+        public long getMisses() {
+            return misses.sum();
+        }
+
+        public long getEvictions() {
+            return evictions.sum();
+        }
+
+    }
+
+}
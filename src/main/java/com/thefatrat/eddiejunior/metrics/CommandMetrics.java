@@ -0,0 +1,137 @@
+package com.thefatrat.eddiejunior.metrics;
+
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+
+/**
+ * Latencies and errors of all commands, interactions and menus, per component and command, across all
+ * servers, and the storage queries they ran.
+ */
+public class CommandMetrics {
+
+    private static final CommandMetrics instance = new CommandMetrics();
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+
+    public static CommandMetrics getInstance() {
+        return instance;
+    }
+
+    private CommandMetrics() {
+    }
+
+    /**
+     * Runs the given action and records its latency, and the type of the exception it threw, if any.
+     *
+     * @param component the component or source of the action
+     * @param command   the command or id of the action
+     * @param action    the action
+     */
+    public void record(@NotNull String component, @NotNull String command, @NotNull Runnable action) {
+        String key = component + " " + command;
+        Stats commandStats = stats.computeIfAbsent(key, k -> new Stats(component, command));
+        QueryMetrics queryMetrics = QueryMetrics.getInstance();
+        String previous = queryMetrics.enterContext(key);
+        long start = System.nanoTime();
+        try {
+            action.run();
+        } catch (RuntimeException e) {
+            commandStats.errors.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+            throw e;
+        } finally {
+            commandStats.histogram.record(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start));
+            queryMetrics.restoreContext(previous);
+        }
+    }
+
+    /**
+     * Counts a storage query against the action that ran it.
+     *
+     * @param action the component and command of the action
+     * @param micros the latency of the query in microseconds
+     */
+    void recordQuery(@NotNull String action, long micros) {
+        Stats commandStats = stats.get(action);
+        if (commandStats != null) {
+            commandStats.queries.increment();
+            commandStats.queryMicros.add(micros);
+        }
+    }
+
+    /**
+     * @return the given listener, with its invocations recorded under the given component and command
+     */
+    @NotNull
+    public <T, R> BiConsumer<T, R> wrap(@NotNull String component, @NotNull String command,
+        @NotNull BiConsumer<T, R> listener) {
+        return (t, r) -> record(component, command, () -> listener.accept(t, r));
+    }
+
+    /**
+     * @param limit the maximum number of commands
+     * @return the recorded commands, slowest 99th percentile first
+     */
+    @NotNull
+    public List<Stats> getSlowest(int limit) {
+        List<Stats> list = new ArrayList<>(stats.values());
+        list.sort(Comparator.comparingLong((Stats s) -> s.getHistogram().getPercentile(0.99)).reversed());
+        return list.subList(0, Math.min(limit, list.size()));
+    }
+
+    public static class Stats {
+
+        private final String component;
+        private final String command;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+        private final LongAdder queries = new LongAdder();
+        private final LongAdder queryMicros = new LongAdder();
+
+        private Stats(String component, String command) {
+            this.component = component;
+            this.command = command;
+        }
+
+        public String getComponent() {
+            return component;
+        }
+
+        public String getCommand() {
+            return command;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        /**
+         * @return the total number of storage queries run by all calls
+         */
+        public long getQueries() {
+            return queries.sum();
+        }
+
+        /**
+         * @return the total time spent in storage queries by all calls, in microseconds
+         */
+        public long getQueryMicros() {
+            return queryMicros.sum();
+        }
+
+        /**
+         * @return the number of errors by exception type
+         */
+        public Map<String, Long> getErrors() {
+            Map<String, Long> result = new TreeMap<>();
+            errors.forEach((type, count) -> result.put(type, count.sum()));
+            return result;
+        }
+
+    }
+
+}
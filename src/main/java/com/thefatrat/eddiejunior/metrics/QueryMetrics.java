@@ -0,0 +1,160 @@
+package com.thefatrat.eddiejunior.metrics;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Supplier;
+
+/**
+ * Latencies, row counts and errors of all storage queries, per query, across all servers. Queries that run
+ * inside an action recorded by {@link CommandMetrics} are also counted against that action.
+ */
+public class QueryMetrics {
+
+    private static final QueryMetrics instance = new QueryMetrics();
+
+    private final Map<String, Stats> stats = new ConcurrentHashMap<>();
+    private final ThreadLocal<String> context = new ThreadLocal<>();
+
+    public static QueryMetrics getInstance() {
+        return instance;
+    }
+
+    private QueryMetrics() {
+    }
+
+    /**
+     * Attributes the queries of the current thread to the given action, until the returned context is
+     * restored.
+     *
+     * @param action the component and command of the action
+     * @return the previous action of the thread, to pass to {@link #restoreContext(String)}
+     */
+    @Nullable
+    String enterContext(@NotNull String action) {
+        String previous = context.get();
+        context.set(action);
+        return previous;
+    }
+
+    void restoreContext(@Nullable String previous) {
+        if (previous == null) {
+            context.remove();
+        } else {
+            context.set(previous);
+        }
+    }
+
+    /**
+     * @return the given call, with its queries attributed to the action of the current thread, wherever it
+     * runs
+     */
+    @NotNull
+    public <T> Supplier<T> inContext(@NotNull Supplier<T> call) {
+        String action = context.get();
+        if (action == null) {
+            return call;
+        }
+        return () -> {
+            String previous = enterContext(action);
+            try {
+                return call.get();
+            } finally {
+                restoreContext(previous);
+            }
+        };
+    }
+
+    /**
+     * @return the action the queries of the current thread are attributed to, or {@code null} if it is
+     * not running one
+     */
+    @Nullable
+    public String getContext() {
+        return context.get();
+    }
+
+    /**
+     * Records a finished query.
+     *
+     * @param query  the name of the query
+     * @param micros the latency in microseconds
+     * @param rows   the number of rows read or written
+     * @param error  the exception the query threw, or {@code null} if it succeeded
+     */
+    public void record(@NotNull String query, long micros, int rows, @Nullable Throwable error) {
+        Stats queryStats = stats.computeIfAbsent(query, Stats::new);
+        queryStats.histogram.record(micros);
+        queryStats.rows.add(rows);
+        if (error != null) {
+            queryStats.errors.computeIfAbsent(error.getClass().getSimpleName(), k -> new LongAdder()).increment();
+        }
+
+        String action = context.get();
+        queryStats.actions.computeIfAbsent(action == null ? "background" : action, k -> new LongAdder())
+            .increment();
+        if (action != null) {
+            CommandMetrics.getInstance().recordQuery(action, micros);
+        }
+    }
+
+    /**
+     * @param limit the maximum number of queries
+     * @return the recorded queries, slowest 99th percentile first
+     */
+    @NotNull
+    public List<Stats> getSlowest(int limit) {
+        List<Stats> list = new ArrayList<>(stats.values());
+        list.sort(Comparator.comparingLong((Stats s) -> s.getHistogram().getPercentile(0.99)).reversed());
+        return list.subList(0, Math.min(limit, list.size()));
+    }
+
+    public static class Stats {
+
+        private final String query;
+        private final LatencyHistogram histogram = new LatencyHistogram();
+        private final LongAdder rows = new LongAdder();
+        private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+        private final Map<String, LongAdder> actions = new ConcurrentHashMap<>();
+
+        private Stats(String query) {
+            this.query = query;
+        }
+
+        public String getQuery() {
+            return query;
+        }
+
+        public LatencyHistogram getHistogram() {
+            return histogram;
+        }
+
+        public long getRows() {
+            return rows.sum();
+        }
+
+        /**
+         * @return the number of errors by exception type
+         */
+        public Map<String, Long> getErrors() {
+            Map<String, Long> result = new TreeMap<>();
+            errors.forEach((type, count) -> result.put(type, count.sum()));
+            return result;
+        }
+
+        /**
+         * @return the number of executions by the action that ran them, with {@code background} for
+         * executions outside an action
+         */
+        public Map<String, Long> getActions() {
+            Map<String, Long> result = new TreeMap<>();
+            actions.forEach((action, count) -> result.put(action, count.sum()));
+            return result;
+        }
+
+    }
+
+}
@@ -1,25 +1,98 @@
 package com.thefatrat.eddiejunior.reply;
 
+import com.thefatrat.eddiejunior.Initializer;
 import net.dv8tion.jda.api.entities.Message;
 import net.dv8tion.jda.api.interactions.InteractionHook;
+import net.dv8tion.jda.api.interactions.callbacks.IMessageEditCallback;
+import net.dv8tion.jda.api.interactions.callbacks.IModalCallback;
 import net.dv8tion.jda.api.interactions.callbacks.IReplyCallback;
+import net.dv8tion.jda.api.interactions.modals.Modal;
 import net.dv8tion.jda.api.utils.messages.MessageCreateData;
+import net.dv8tion.jda.api.utils.messages.MessageEditData;
+import org.jetbrains.annotations.Nullable;
 
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
 
+/**
+ * Reply to an interaction. If the interaction has not been acknowledged within the configured
+ * {@code defer_after} milliseconds, it is deferred automatically so that Discord does not drop it, and
+ * everything sent afterwards goes through the interaction hook instead.
+ */
 public class DefaultReply implements Reply, EphemeralReply {
 
+    private static final long DEFAULT_DEFER_AFTER = 2000;
+    private static final long DEFER_AFTER = getConfiguredDeferAfter();
+    private static final ScheduledThreadPoolExecutor WATCHDOG = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "reply-watchdog");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    static {
+        WATCHDOG.setRemoveOnCancelPolicy(true);
+    }
+
     private final IReplyCallback event;
+    private final IMessageEditCallback editCallback;
+    private final ScheduledFuture<?> watchdog;
     private InteractionHook action = null;
+    private InteractionHook deferredHook = null;
+    private boolean replaceOriginal = false;
+    private boolean deferredEphemeral = false;
     private boolean ephemeral = false;
 
     public DefaultReply(IReplyCallback event) {
+        this(event, null);
+    }
+
+    /**
+     * @param event        the interaction
+     * @param editCallback the interaction, if its message can be edited, in which case it is deferred by
+     *                     editing instead of replying
+     */
+    DefaultReply(IReplyCallback event, @Nullable IMessageEditCallback editCallback) {
         this.event = event;
+        this.editCallback = editCallback;
+        this.watchdog = WATCHDOG.schedule(this::autoDefer, DEFER_AFTER, TimeUnit.MILLISECONDS);
+    }
+
+    private static long getConfiguredDeferAfter() {
+        String property = Initializer.getInstance().getProperty("defer_after");
+        if (property == null) {
+            return DEFAULT_DEFER_AFTER;
+        }
+        try {
+            return Math.max(0, Long.parseLong(property.strip()));
+        } catch (NumberFormatException e) {
+            return DEFAULT_DEFER_AFTER;
+        }
+    }
+
+    private synchronized void autoDefer() {
+        if (event.isAcknowledged()) {
+            return;
+        }
+
+        if (editCallback != null) {
+            editCallback.deferEdit().queue();
+        } else {
+            event.deferReply(ephemeral).queue();
+            replaceOriginal = true;
+            deferredEphemeral = ephemeral;
+        }
+        deferredHook = event.getHook();
     }
 
     @Override
     public synchronized void send(MessageCreateData data, Consumer<Message> callback) {
-        if (event.isAcknowledged()) {
+        watchdog.cancel(false);
+
+        if (deferredHook != null) {
+            sendDeferred(data, callback);
+        } else if (event.isAcknowledged()) {
             if (action == null) {
                 event.getMessageChannel().sendMessage(data).queue(callback);
             } else {
@@ -31,9 +104,52 @@ public class DefaultReply implements Reply, EphemeralReply {
         }
     }
 
+    private void sendDeferred(MessageCreateData data, Consumer<Message> callback) {
+        if (replaceOriginal) {
+            replaceOriginal = false;
+            if (ephemeral == deferredEphemeral) {
+                deferredHook.editOriginal(MessageEditData.fromCreateData(data)).queue(callback);
+                return;
+            }
+            // the placeholder cannot change visibility, so replace it with a followup
+            deferredHook.deleteOriginal().queue();
+        }
+        deferredHook.sendMessage(data).setEphemeral(ephemeral).queue(callback);
+    }
+
+    /**
+     * Edits the message of the interaction.
+     *
+     * @param data     the new message
+     * @param callback the callback with the edited message
+     */
+    synchronized void edit(MessageEditData data, Consumer<Message> callback) {
+        watchdog.cancel(false);
+
+        if (deferredHook != null && editCallback != null) {
+            deferredHook.editOriginal(data).queue(callback);
+        } else if (editCallback != null) {
+            editCallback.editMessage(data).queue(hook -> hook.retrieveOriginal().queue(callback));
+        } else {
+            throw new UnsupportedOperationException("Interaction has no message to edit");
+        }
+    }
+
+    synchronized void sendModal(IModalCallback modalCallback, Modal modal) {
+        if (modalCallback.isAcknowledged()) {
+            throw new UnsupportedOperationException("Can only reply with a modal once");
+        }
+        watchdog.cancel(false);
+        modalCallback.replyModal(modal).queue();
+    }
+
     @Override
     public synchronized void defer() {
-        action = event.deferReply(ephemeral).complete();
+        watchdog.cancel(false);
+
+        if (deferredHook == null) {
+            action = event.deferReply(ephemeral).complete();
+        }
     }
 
     @Override
@@ -1,10 +1,13 @@
 package com.thefatrat.eddiejunior.reply;
 
 import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.interactions.callbacks.IMessageEditCallback;
 import net.dv8tion.jda.api.interactions.callbacks.IModalCallback;
 import net.dv8tion.jda.api.interactions.callbacks.IReplyCallback;
 import net.dv8tion.jda.api.interactions.modals.Modal;
 import net.dv8tion.jda.api.utils.messages.MessageCreateData;
+import net.dv8tion.jda.api.utils.messages.MessageEditData;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.function.Consumer;
 
@@ -14,8 +17,17 @@ public class InteractionReply implements Reply, ModalReply, EphemeralReply {
     private final DefaultReply reply;
 
     public <T extends IReplyCallback & IModalCallback> InteractionReply(T callback) {
+        this(callback, null);
+    }
+
+    <T extends IReplyCallback & IModalCallback> InteractionReply(T callback,
+        @Nullable IMessageEditCallback editCallback) {
         this.modalCallback = callback;
-        this.reply = new DefaultReply(callback);
+        this.reply = new DefaultReply(callback, editCallback);
+    }
+
+    synchronized void edit(MessageEditData data, Consumer<Message> callback) {
+        reply.edit(data, callback);
     }
 
     @Override
@@ -30,10 +42,7 @@ public class InteractionReply implements Reply, ModalReply, EphemeralReply {
 
     @Override
     public synchronized void sendModal(Modal modal) {
-        if (modalCallback.isAcknowledged()) {
-            throw new UnsupportedOperationException("Can only reply with a modal once");
-        }
-        modalCallback.replyModal(modal).queue();
+        reply.sendModal(modalCallback, modal);
     }
 
     @Override
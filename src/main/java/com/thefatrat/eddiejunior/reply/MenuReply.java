@@ -12,17 +12,15 @@ import java.util.function.Consumer;
 
 public class MenuReply implements Reply, EditReply, ModalReply, EphemeralReply {
 
-    private final IMessageEditCallback messageEditCallback;
     private final InteractionReply reply;
 
     public <T extends IModalCallback & IReplyCallback & IMessageEditCallback> MenuReply(T callback) {
-        this.messageEditCallback = callback;
-        this.reply = new InteractionReply(callback);
+        this.reply = new InteractionReply(callback, callback);
     }
 
     @Override
     public synchronized void edit(MessageEditData data, Consumer<Message> callback) {
-        messageEditCallback.editMessage(data).queue(hook -> hook.retrieveOriginal().queue(callback));
+        this.reply.edit(data, callback);
     }
 
     @Override
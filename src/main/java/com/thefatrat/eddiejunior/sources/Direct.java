@@ -7,12 +7,14 @@ import com.thefatrat.eddiejunior.events.ButtonEvent;
 import com.thefatrat.eddiejunior.events.GenericEvent;
 import com.thefatrat.eddiejunior.events.SelectEvent;
 import com.thefatrat.eddiejunior.exceptions.BotErrorException;
+import com.thefatrat.eddiejunior.exceptions.BotException;
 import com.thefatrat.eddiejunior.exceptions.BotWarningException;
 import com.thefatrat.eddiejunior.handlers.MapHandler;
-import com.thefatrat.eddiejunior.handlers.SetHandler;
+import com.thefatrat.eddiejunior.handlers.PrefixHandler;
 import com.thefatrat.eddiejunior.reply.MenuReply;
 import com.thefatrat.eddiejunior.reply.Reply;
 import com.thefatrat.eddiejunior.util.Colors;
+import com.thefatrat.eddiejunior.util.ExpiringCache;
 import com.thefatrat.eddiejunior.util.Icon;
 import net.dv8tion.jda.api.EmbedBuilder;
 import net.dv8tion.jda.api.entities.Guild;
@@ -30,14 +32,14 @@ import net.dv8tion.jda.api.utils.messages.MessageEditData;
 import org.jetbrains.annotations.NotNull;
 
 import javax.annotation.CheckReturnValue;
-import java.util.HashMap;
+import java.time.Duration;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 public class Direct {
 
-    private final Map<String, Message> cache = new HashMap<>();
+    private final ExpiringCache<String, Message> cache = new ExpiringCache<>("direct", Duration.ofMinutes(15), 10_000);
     private final HandlerCollection<User> handlerCollection = new HandlerCollection<>();
 
     public Direct() {
@@ -57,7 +59,13 @@ public class Direct {
                 throw new BotErrorException("Could not send to the given service, try again");
             }
 
-            server.getDirectMessageHandler().handle(component, userMessage, reply);
+            server.execute(() -> {
+                try {
+                    server.getDirectMessageHandler().handle(component, userMessage, reply);
+                } catch (BotException e) {
+                    reply.edit(e);
+                }
+            });
         });
         getStringSelectHandler().addListener("server", (event, reply) ->
             reply.edit(MessageEditData.fromCreateData(
@@ -65,31 +73,37 @@ public class Direct {
             ))
         );
 
-        getButtonHandler().addListener((event, reply) -> {
-            if ("x".equals(event.getButtonId())) {
-                cache.remove(event.getActor().getId());
-                reply.edit(Icon.STOP, "Successfully cancelled");
-            } else {
-                handleRequestEvent(event, reply);
-            }
+        getButtonHandler().addListener("x", (event, reply) -> {
+            cache.remove(event.getActor().getId());
+            reply.edit(Icon.STOP, "Successfully cancelled");
         });
+        getButtonHandler().setDefaultListener(this::handleRequestEvent);
     }
 
     private void handleRequestEvent(ButtonEvent<User> event, MenuReply reply) {
         String[] split = event.getButtonId().split("-", 2);
+        if (split.length != 2) {
+            throw new BotErrorException("Unknown request");
+        }
         Server server = Bot.getInstance().getServer(split[0]);
         if (server == null) {
             throw new BotErrorException("Server not found");
         }
         GenericEvent<User> requestEvent = new GenericEvent<>(event.getActor());
-        server.getRequestHandler().handle(split[1], requestEvent, reply);
+        server.execute(() -> {
+            try {
+                server.getRequestHandler().handle(split[1], requestEvent, reply);
+            } catch (BotException e) {
+                reply.edit(e);
+            }
+        });
     }
 
     public MapHandler<SelectEvent<SelectOption>, MenuReply> getStringSelectHandler() {
         return handlerCollection.getStringSelectHandler();
     }
 
-    public SetHandler<ButtonEvent<User>, MenuReply> getButtonHandler() {
+    public PrefixHandler<ButtonEvent<User>, MenuReply> getButtonHandler() {
         return handlerCollection.getButtonHandler();
     }
 
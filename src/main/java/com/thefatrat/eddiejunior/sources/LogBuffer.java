@@ -0,0 +1,134 @@
+package com.thefatrat.eddiejunior.sources;
+
+import com.thefatrat.eddiejunior.RestScheduler;
+import com.thefatrat.eddiejunior.util.Colors;
+import net.dv8tion.jda.api.EmbedBuilder;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.MessageEmbed;
+import net.dv8tion.jda.api.entities.channel.concrete.TextChannel;
+import net.dv8tion.jda.api.utils.messages.MessageCreateData;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Buffers the log entries of a server and sends them in batches of up to {@value Message#MAX_EMBED_COUNT}
+ * embeds per message, once per flush window. When entries arrive faster than they can be sent, verbose
+ * entries are dropped first, and every entry beyond the capacity of the buffer after that. Dropped entries
+ * are counted and reported in the next batch.
+ */
+class LogBuffer {
+
+    private static final long FLUSH_WINDOW = 2000;
+    private static final int MAX_EMBEDS = Message.MAX_EMBED_COUNT;
+    private static final int MAX_MESSAGES_PER_FLUSH = 5;
+    private static final int VERBOSE_CAPACITY = 50;
+    private static final int CAPACITY = 200;
+    private static final ScheduledThreadPoolExecutor FLUSHER = new ScheduledThreadPoolExecutor(1, runnable -> {
+        Thread thread = new Thread(runnable, "log-flush");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    private final Supplier<TextChannel> channel;
+    private final Queue<MessageEmbed> entries = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger size = new AtomicInteger();
+    private final AtomicBoolean scheduled = new AtomicBoolean();
+    private final AtomicLong dropped = new AtomicLong();
+
+    /**
+     * @param channel supplies the current log channel, or {@code null} if there is none
+     */
+    LogBuffer(@NotNull Supplier<TextChannel> channel) {
+        this.channel = channel;
+    }
+
+    /**
+     * Adds an entry to the buffer.
+     *
+     * @param embed   the entry
+     * @param verbose whether the entry may be dropped under load
+     */
+    void add(@NotNull MessageEmbed embed, boolean verbose) {
+        int capacity = verbose ? VERBOSE_CAPACITY : CAPACITY;
+        if (size.incrementAndGet() > capacity) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+        } else {
+            entries.add(embed);
+        }
+        schedule();
+    }
+
+    private void schedule() {
+        if (scheduled.compareAndSet(false, true)) {
+            FLUSHER.schedule(this::flush, FLUSH_WINDOW, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    private void flush() {
+        scheduled.set(false);
+
+        TextChannel log = channel.get();
+        if (log == null || !log.canTalk()) {
+            while (entries.poll() != null) {
+                size.decrementAndGet();
+            }
+            dropped.set(0);
+            return;
+        }
+
+        for (int i = 0; i < MAX_MESSAGES_PER_FLUSH; i++) {
+            List<MessageEmbed> batch = nextBatch();
+            if (batch.isEmpty()) {
+                break;
+            }
+            RestScheduler.getInstance().queue(log.getGuild(), log.sendMessage(MessageCreateData.fromEmbeds(batch)),
+                RestScheduler.Priority.BACKGROUND);
+        }
+
+        if (!entries.isEmpty()) {
+            schedule();
+        }
+    }
+
+    @NotNull
+    private List<MessageEmbed> nextBatch() {
+        List<MessageEmbed> batch = new ArrayList<>(MAX_EMBEDS);
+        int length = 0;
+
+        long droppedCount = dropped.getAndSet(0);
+        if (droppedCount > 0) {
+            MessageEmbed notice = new EmbedBuilder()
+                .setColor(Colors.GRAY)
+                .setDescription(String.format("%d log entries were dropped", droppedCount))
+                .build();
+            batch.add(notice);
+            length += notice.getLength();
+        }
+
+        while (batch.size() < MAX_EMBEDS) {
+            MessageEmbed embed = entries.peek();
+            if (embed == null || !batch.isEmpty()
+                && length + embed.getLength() > MessageEmbed.EMBED_MAX_LENGTH_BOT) {
+                break;
+            }
+            entries.poll();
+            size.decrementAndGet();
+            batch.add(embed);
+            length += embed.getLength();
+        }
+
+        return batch;
+    }
+
+}
@@ -4,15 +4,18 @@ import com.thefatrat.eddiejunior.Bot;
 import com.thefatrat.eddiejunior.DatabaseManager;
 import com.thefatrat.eddiejunior.HandlerCollection;
 import com.thefatrat.eddiejunior.RequestManager;
+import com.thefatrat.eddiejunior.ServerSnapshot;
 import com.thefatrat.eddiejunior.components.Component;
 import com.thefatrat.eddiejunior.components.GlobalComponent;
 import com.thefatrat.eddiejunior.entities.Command;
 import com.thefatrat.eddiejunior.entities.Interaction;
 import com.thefatrat.eddiejunior.entities.PermissionEntity;
+import com.thefatrat.eddiejunior.entities.PermissionTier;
 import com.thefatrat.eddiejunior.events.*;
 import com.thefatrat.eddiejunior.exceptions.BotErrorException;
 import com.thefatrat.eddiejunior.exceptions.BotException;
 import com.thefatrat.eddiejunior.handlers.*;
+import com.thefatrat.eddiejunior.metrics.CommandMetrics;
 import com.thefatrat.eddiejunior.reply.DefaultReply;
 import com.thefatrat.eddiejunior.reply.InteractionReply;
 import com.thefatrat.eddiejunior.reply.MenuReply;
@@ -31,6 +34,7 @@ import javax.annotation.CheckReturnValue;
 import java.lang.reflect.InvocationTargetException;
 import java.time.Instant;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
 
 public class Server {
 
@@ -39,11 +43,16 @@ public class Server {
     private final ComponentHandler directHandler = new ComponentHandler();
     private final RequestHandler requestHandler = new RequestHandler();
     private final Map<String, Component> components = new HashMap<>();
-    private final RequestManager requestManager = new RequestManager();
+    private final RequestManager requestManager;
     private final Map<String, MapHandler<CommandEvent, InteractionReply>> subCommandHandler = new HashMap<>();
-    private TextChannel log = null;
-    private Role manageRole = null;
-    private Role useRole = null;
+    private final Queue<Runnable> readyQueue = new ArrayDeque<>();
+    private ServerSnapshot serverSnapshot = null;
+    private boolean ready = false;
+    private final LogBuffer logBuffer = new LogBuffer(this::getLog);
+    private volatile TextChannel log = null;
+    private final Map<Long, PermissionTier> permissionTiers = new ConcurrentHashMap<>();
+    private volatile Role manageRole = null;
+    private volatile Role useRole = null;
 
     @NotNull
     @Contract(" -> new")
@@ -53,6 +62,7 @@ public class Server {
 
     public Server(String id) {
         this.id = id;
+        this.requestManager = new RequestManager(id);
     }
 
     public Guild getGuild() {
@@ -63,28 +73,126 @@ public class Server {
         return id;
     }
 
-    private void checkPermissions(@NotNull Member member, PermissionEntity.RequiredPermission requiredPermission) {
-        if (requiredPermission != null) {
-            if (member.hasPermission(Permission.ADMINISTRATOR)) {
+    /**
+     * Runs the given task immediately if this server has finished loading, or queues it to be run
+     * once it has.
+     *
+     * @param runnable the task to run
+     */
+    public void whenReady(@NotNull Runnable runnable) {
+        synchronized (readyQueue) {
+            if (!ready) {
+                readyQueue.add(runnable);
                 return;
             }
-
-            switch (requiredPermission) {
-                case MANAGE -> {
-                    if (manageRole != null && member.getRoles().contains(manageRole)) {
-                        return;
-                    }
+        }
+        runnable.run();
+    }
+
+    /**
+     * Runs the given task in the event mailbox of this server, after all events that were received before.
+     * State of the server and its components should only be changed from within its mailbox.
+     *
+     * @param runnable the task to run
+     */
+    public void execute(@NotNull Runnable runnable) {
+        Bot.getInstance().getEventManager().execute(id, runnable);
+    }
+
+    /**
+     * Marks this server as loaded and runs all tasks that were queued while it was loading. The tasks are run
+     * in the event mailbox of this server, before any events that arrive afterwards.
+     */
+    public void setReady() {
+        execute(this::drainReadyQueue);
+    }
+
+    private void drainReadyQueue() {
+        while (true) {
+            Runnable runnable;
+            synchronized (readyQueue) {
+                runnable = readyQueue.poll();
+                if (runnable == null) {
+                    ready = true;
+                    return;
                 }
-                case USE -> {
-                    if (manageRole != null && member.getRoles().contains(manageRole)
-                        || useRole != null && member.getRoles().contains(useRole)) {
-                        return;
-                    }
+            }
+            try {
+                runnable.run();
+            } catch (RuntimeException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Destroys all components of this server once it has finished loading, after which the server is no
+     * longer used.
+     */
+    public void destroy() {
+        execute(() -> whenReady(() -> {
+            for (Component component : components.values()) {
+                try {
+                    component.destroy();
+                } catch (RuntimeException e) {
+                    e.printStackTrace();
                 }
             }
+        }));
+    }
+
+    public boolean isReady() {
+        synchronized (readyQueue) {
+            return ready;
+        }
+    }
+
+    private void checkPermissions(@NotNull Member member, PermissionEntity.RequiredPermission requiredPermission) {
+        if (!getPermissionTier(member).allows(requiredPermission)) {
+            throw new BotErrorException("No permission to interact");
         }
+    }
+
+    /**
+     * Returns the permission tier of a member, which is computed once and cached until it is invalidated.
+     *
+     * @param member the member
+     * @return the permission tier
+     */
+    @NotNull
+    public PermissionTier getPermissionTier(@NotNull Member member) {
+        return permissionTiers.computeIfAbsent(member.getIdLong(), id -> computePermissionTier(member));
+    }
+
+    @NotNull
+    private PermissionTier computePermissionTier(@NotNull Member member) {
+        if (member.hasPermission(Permission.ADMINISTRATOR)) {
+            return PermissionTier.ADMIN;
+        }
+        List<Role> roles = member.getRoles();
+        if (manageRole != null && roles.contains(manageRole)) {
+            return PermissionTier.MANAGE;
+        }
+        if (useRole != null && roles.contains(useRole)) {
+            return PermissionTier.USE;
+        }
+        return PermissionTier.NONE;
+    }
+
+    /**
+     * Drops the cached permission tier of a member, after its roles have changed.
+     *
+     * @param memberId the member id
+     */
+    public void invalidatePermissionTier(long memberId) {
+        permissionTiers.remove(memberId);
+    }
 
-        throw new BotErrorException("No permission to interact");
+    /**
+     * Drops the cached permission tiers of all members, after the permissions of a role have changed.
+     */
+    public void invalidatePermissionTiers() {
+        permissionTiers.clear();
     }
 
     public void checkCommandPermissions(@NotNull Member member, String command) throws BotException {
@@ -109,10 +217,12 @@ public class Server {
 
     public void setManageRole(@Nullable Role manageRole) {
         this.manageRole = manageRole;
+        invalidatePermissionTiers();
     }
 
     public void setUseRole(@Nullable Role useRole) {
         this.useRole = useRole;
+        invalidatePermissionTiers();
     }
 
     public List<Component> getComponents() {
@@ -121,13 +231,15 @@ public class Server {
         return list;
     }
 
+    /**
+     * Updates the commands of this server to match the enabled components.
+     *
+     * @param force whether to update the commands even if they seem to be up-to-date
+     * @return the action that updates the commands
+     */
     @CheckReturnValue
-    public RestAction<?> toggleComponent(Component component, boolean enable) {
-        if (enable) {
-            return Bot.getInstance().registerGuildCommands(id, component);
-        } else {
-            return Bot.getInstance().deregisterGuildCommands(id, component);
-        }
+    public RestAction<?> updateCommands(boolean force) {
+        return Bot.getInstance().syncGuildCommands(this, force);
     }
 
     @Nullable
@@ -140,12 +252,55 @@ public class Server {
         return clazz.cast(getComponent(componentName));
     }
 
+    /**
+     * @return the snapshot of the server while it is being loaded, otherwise {@code null}
+     */
+    @Nullable
+    public ServerSnapshot getServerSnapshot() {
+        return serverSnapshot;
+    }
+
+    /**
+     * Sets the snapshot to read stored state from until {@link #releaseServerSnapshot()} is called. If no
+     * snapshot is given, all settings of this server are loaded with a single query.
+     *
+     * @param snapshot a preloaded snapshot, or {@code null}
+     */
+    public void loadServerSnapshot(@Nullable ServerSnapshot snapshot) {
+        serverSnapshot = snapshot != null ? snapshot : DatabaseManager.getServerSnapshot(id);
+    }
+
+    public void releaseServerSnapshot() {
+        if (serverSnapshot != null) {
+            serverSnapshot.release();
+            serverSnapshot = null;
+        }
+    }
+
     @NotNull
     @SafeVarargs
     public final Collection<Component> registerComponents(Class<? extends Component> @NotNull ... components) {
+        if (serverSnapshot != null) {
+            registerComponentInstances(components);
+            return this.components.values();
+        }
+
+        loadServerSnapshot(null);
+        try {
+            registerComponentInstances(components);
+        } finally {
+            releaseServerSnapshot();
+        }
+
+        return this.components.values();
+    }
+
+    @SafeVarargs
+    private void registerComponentInstances(Class<? extends Component> @NotNull ... components) {
         for (Class<? extends Component> component : components) {
             try {
                 Component instance = component.getDeclaredConstructor(Server.class).newInstance(this);
+                CommandMetrics metrics = CommandMetrics.getInstance();
 
                 for (Command command : instance.getCommands()) {
                     PermissionEntity.RequiredPermission minPermission = command.getRequiredPermission() == null
@@ -161,31 +316,35 @@ public class Server {
                         MapHandler<CommandEvent, InteractionReply> mapHandler = new MapHandler<>();
                         subCommandHandler.put(command.getName(), mapHandler);
                         for (Command sub : command.getSubcommands()) {
-                            mapHandler.addListener(sub.getName(), sub.getAction());
-
                             String commandName = command.getName() + " " + sub.getName();
+                            mapHandler.addListener(sub.getName(),
+                                metrics.wrap(instance.getId(), commandName, sub.getAction()));
+
                             if (sub.getRequiredPermission() != null) {
                                 getCommandHandler().addRequiredPermission(commandName, sub.getRequiredPermission());
                             } else {
                                 getCommandHandler().addRequiredPermission(commandName, minPermission);
                             }
                         }
+                        getCommandHandler().addListener(command.getName(), command.getAction());
                     } else {
                         getCommandHandler().addRequiredPermission(command.getName(), minPermission);
+                        getCommandHandler().addListener(command.getName(),
+                            metrics.wrap(instance.getId(), command.getName(), command.getAction()));
                     }
-
-                    getCommandHandler().addListener(command.getName(), command.getAction());
                 }
 
                 for (Interaction<Message> interaction : instance.getMessageInteractions()) {
-                    getMessageInteractionHandler().addListener(interaction.getName(), interaction.getAction());
+                    getMessageInteractionHandler().addListener(interaction.getName(),
+                        metrics.wrap(instance.getId(), interaction.getName(), interaction.getAction()));
                     PermissionEntity.RequiredPermission permission = interaction.getRequiredPermission() == null
                         ? PermissionEntity.RequiredPermission.USE : interaction.getRequiredPermission();
                     getMessageInteractionHandler().addRequiredPermission(interaction.getName(), permission);
                 }
 
                 for (Interaction<Member> interaction : instance.getMemberInteractions()) {
-                    getMemberInteractionHandler().addListener(interaction.getName(), interaction.getAction());
+                    getMemberInteractionHandler().addListener(interaction.getName(),
+                        metrics.wrap(instance.getId(), interaction.getName(), interaction.getAction()));
                     PermissionEntity.RequiredPermission permission = interaction.getRequiredPermission() == null
                         ? PermissionEntity.RequiredPermission.USE : interaction.getRequiredPermission();
                     getMemberInteractionHandler().addRequiredPermission(interaction.getName(), permission);
@@ -198,9 +357,14 @@ public class Server {
                     continue;
                 }
 
-                if (DatabaseManager.isComponentEnabled(id, instance.getId())) {
+                Set<String> enabledComponents = serverSnapshot == null ? null
+                    : serverSnapshot.getEnabledComponents();
+                boolean enabled = enabledComponents != null
+                    ? enabledComponents.contains(instance.getId())
+                    : DatabaseManager.isComponentEnabled(id, instance.getId());
+
+                if (enabled) {
                     instance.enable();
-                    toggleComponent(instance, true).queue();
                 }
 
             } catch (NoSuchMethodException | InvocationTargetException | InstantiationException |
@@ -208,8 +372,6 @@ public class Server {
                 e.printStackTrace();
             }
         }
-
-        return this.components.values();
     }
 
     public Set<String> getRegisteredCommands() {
@@ -230,19 +392,7 @@ public class Server {
     }
 
     public void log(int color, User user, String message, Object... args) {
-        synchronized (log) {
-            if (log == null || !log.canTalk()) {
-                return;
-            }
-            log.sendMessageEmbeds(new EmbedBuilder()
-                .setColor(color)
-                .setDescription(String.format("%s ", user.getAsMention()) +
-                    String.format(message, args))
-                .setFooter(user.getId(), user.getEffectiveAvatarUrl())
-                .setTimestamp(Instant.now())
-                .build()
-            ).queue();
-        }
+        log(false, color, user, message, args);
     }
 
     public void log(User user, String message, Object... args) {
@@ -250,23 +400,48 @@ public class Server {
     }
 
     public void log(int color, String message, Object... args) {
-        synchronized (log) {
-            if (log == null || !log.canTalk()) {
-                return;
-            }
-            log.sendMessageEmbeds(new EmbedBuilder()
-                .setColor(color)
-                .setDescription(String.format(message, args))
-                .setTimestamp(Instant.now())
-                .build()
-            ).queue();
-        }
+        log(false, color, null, message, args);
     }
 
     public void log(String message, Object... args) {
         log(Colors.TRANSPARENT, message, args);
     }
 
+    /**
+     * Logs a frequent, low-importance entry, which is the first to be dropped when the server logs more than
+     * can be sent.
+     */
+    public void logVerbose(int color, User user, String message, Object... args) {
+        log(true, color, user, message, args);
+    }
+
+    /**
+     * Logs a frequent, low-importance entry, which is the first to be dropped when the server logs more than
+     * can be sent.
+     */
+    public void logVerbose(String message, Object... args) {
+        log(true, Colors.TRANSPARENT, null, message, args);
+    }
+
+    private void log(boolean verbose, int color, @Nullable User user, String message, Object... args) {
+        TextChannel channel = log;
+        if (channel == null || !channel.canTalk()) {
+            return;
+        }
+
+        EmbedBuilder embed = new EmbedBuilder()
+            .setColor(color)
+            .setTimestamp(Instant.now());
+        if (user == null) {
+            embed.setDescription(String.format(message, args));
+        } else {
+            embed.setDescription(String.format("%s ", user.getAsMention()) + String.format(message, args))
+                .setFooter(user.getId(), user.getEffectiveAvatarUrl());
+        }
+
+        logBuffer.add(embed.build(), verbose);
+    }
+
     public RequestManager getRequestManager() {
         return requestManager;
     }
@@ -295,7 +470,7 @@ public class Server {
         return handlerCollection.getArchiveHandler();
     }
 
-    public SetHandler<ButtonEvent<Member>, MenuReply> getButtonHandler() {
+    public PrefixHandler<ButtonEvent<Member>, MenuReply> getButtonHandler() {
         return handlerCollection.getButtonHandler();
     }
 
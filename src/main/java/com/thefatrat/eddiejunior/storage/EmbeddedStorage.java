@@ -0,0 +1,334 @@
+package com.thefatrat.eddiejunior.storage;
+
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Storage in an embedded H2 database file, with the same tables as the MySQL schema. The database runs in
+ * MySQL compatibility mode, so that the statements match those of {@link MySqlStorage} where possible. The
+ * tables are created when the file is first opened.
+ * <p>
+ * All access goes through a single connection. Batches of setting changes are written in one transaction.
+ * The database is not closed by the shutdown hook of H2 itself, but by {@link #close()}, so that writes made
+ * while the bot shuts down still reach the file.
+ */
+class EmbeddedStorage implements Storage {
+
+    private static final String[] SCHEMA = {
+        "CREATE TABLE IF NOT EXISTS component (server_id VARCHAR(32) NOT NULL, " +
+            "component_name VARCHAR(64) NOT NULL, enabled BOOLEAN NOT NULL, PRIMARY KEY (server_id,component_name));",
+        "CREATE TABLE IF NOT EXISTS setting (server_id VARCHAR(32) NOT NULL, component_name VARCHAR(64) NOT NULL, " +
+            "name VARCHAR(255) NOT NULL, value TEXT);",
+        "CREATE INDEX IF NOT EXISTS setting_key ON setting (server_id,component_name,name);",
+        "CREATE TABLE IF NOT EXISTS setting_version (server_id VARCHAR(32) PRIMARY KEY, version BIGINT NOT NULL);",
+        "CREATE TABLE IF NOT EXISTS faq (server_id VARCHAR(32) NOT NULL, q_number INT NOT NULL, value TEXT, " +
+            "PRIMARY KEY (server_id,q_number));",
+        "CREATE TABLE IF NOT EXISTS poll (server_id VARCHAR(32) NOT NULL, poll_id VARCHAR(32) NOT NULL, " +
+            "value LONGTEXT, PRIMARY KEY (server_id,poll_id));",
+        "CREATE TABLE IF NOT EXISTS poll_vote (server_id VARCHAR(32) NOT NULL, poll_id VARCHAR(32) NOT NULL, " +
+            "seq BIGINT NOT NULL, user_id VARCHAR(32) NOT NULL, choice VARCHAR(255) NOT NULL, op CHAR(1) NOT NULL, " +
+            "PRIMARY KEY (server_id,poll_id,seq));",
+    };
+
+    private final Connection connection;
+
+    EmbeddedStorage(@NotNull Path file) {
+        try {
+            connection = DriverManager.getConnection(
+                "jdbc:h2:file:" + file.toAbsolutePath() + ";MODE=MySQL;NON_KEYWORDS=VALUE;DB_CLOSE_ON_EXIT=FALSE");
+            try (Statement statement = connection.createStatement()) {
+                for (String table : SCHEMA) {
+                    statement.execute(table);
+                }
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Could not open embedded storage " + file, e);
+        }
+    }
+
+    @FunctionalInterface
+    private interface RowMapper<T> {
+        T map(ResultSet row) throws SQLException;
+    }
+
+    @NotNull
+    private synchronized <T> List<T> query(@NotNull String sql, @NotNull RowMapper<T> mapper, Object... args) {
+        try (PreparedStatement statement = prepare(sql, args); ResultSet result = statement.executeQuery()) {
+            List<T> rows = new ArrayList<>();
+            while (result.next()) {
+                rows.add(mapper.map(result));
+            }
+            return rows;
+        } catch (SQLException e) {
+            throw new StorageException(sql, e);
+        }
+    }
+
+    private synchronized void update(@NotNull String sql, Object... args) {
+        try (PreparedStatement statement = prepare(sql, args)) {
+            statement.executeUpdate();
+        } catch (SQLException e) {
+            throw new StorageException(sql, e);
+        }
+    }
+
+    @NotNull
+    private PreparedStatement prepare(@NotNull String sql, Object @NotNull ... args) throws SQLException {
+        PreparedStatement statement = connection.prepareStatement(sql);
+        for (int i = 0; i < args.length; i++) {
+            statement.setObject(i + 1, args[i]);
+        }
+        return statement;
+    }
+
+    @Override
+    public synchronized boolean ping() {
+        try {
+            return connection.isValid(1);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void checkSchema() {
+        // all tables are created when the file is opened
+    }
+
+    @Override
+    public synchronized void close() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new StorageException("Could not close embedded storage", e);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Set<String>> getEnabledComponents() {
+        Map<String, Set<String>> enabled = new HashMap<>();
+        query("SELECT server_id,component_name FROM component WHERE enabled;",
+            row -> enabled.computeIfAbsent(row.getString(1), k -> new HashSet<>()).add(row.getString(2)));
+        return enabled;
+    }
+
+    @NotNull
+    @Override
+    public Set<String> getEnabledComponents(String server) {
+        return new HashSet<>(query("SELECT component_name FROM component WHERE server_id=? AND enabled;",
+            row -> row.getString(1), server));
+    }
+
+    @Override
+    public void setComponentEnabled(String server, String component, boolean enabled) {
+        update("INSERT INTO component (server_id,component_name,enabled) VALUES(?,?,?) " +
+            "ON DUPLICATE KEY UPDATE enabled=?;", server, component, enabled, enabled);
+    }
+
+    @NotNull
+    @Override
+    public List<String> getSettingValues(String server, String component, String name) {
+        return query("SELECT value FROM setting WHERE server_id=? AND component_name=? AND name=?;",
+            row -> row.getString(1), server, component, name);
+    }
+
+    @NotNull
+    @Override
+    public Map<String, List<String>> getSettingValues(String server, String component, Collection<String> names) {
+        Map<String, List<String>> result = new HashMap<>();
+        for (String name : names) {
+            result.put(name, getSettingValues(server, component, name));
+        }
+        return result;
+    }
+
+    @NotNull
+    @Override
+    public List<Setting> getSettings(String server) {
+        return query("SELECT component_name,name,value FROM setting WHERE server_id=?;",
+            row -> new Setting(server, row.getString(1), row.getString(2), row.getString(3)), server);
+    }
+
+    @NotNull
+    @Override
+    public List<Setting> getAllSettings() {
+        return query("SELECT server_id,component_name,name,value FROM setting;",
+            row -> new Setting(row.getString(1), row.getString(2), row.getString(3), row.getString(4)));
+    }
+
+    @Override
+    public synchronized void writeSettings(Collection<Setting> replaced, Collection<Setting> removed,
+        Collection<Setting> added) {
+        try {
+            connection.setAutoCommit(false);
+            try (
+                PreparedStatement replace = connection.prepareStatement(
+                    "DELETE FROM setting WHERE server_id=? AND component_name=? AND name=?;");
+                PreparedStatement remove = connection.prepareStatement(
+                    "DELETE FROM setting WHERE server_id=? AND component_name=? AND name=? AND value=?;");
+                PreparedStatement add = connection.prepareStatement(
+                    "INSERT INTO setting (server_id,component_name,name,value) VALUES(?,?,?,?);")
+            ) {
+                for (Setting setting : replaced) {
+                    replace.setString(1, setting.server());
+                    replace.setString(2, setting.component());
+                    replace.setString(3, setting.name());
+                    replace.addBatch();
+                }
+                replace.executeBatch();
+                for (Setting setting : removed) {
+                    setRow(remove, setting);
+                    remove.addBatch();
+                }
+                remove.executeBatch();
+                for (Setting setting : added) {
+                    setRow(add, setting);
+                    add.addBatch();
+                }
+                add.executeBatch();
+                connection.commit();
+            } catch (SQLException e) {
+                connection.rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (SQLException e) {
+            throw new StorageException("Could not write settings", e);
+        }
+    }
+
+    private static void setRow(@NotNull PreparedStatement statement, @NotNull Setting setting)
+        throws SQLException {
+        statement.setString(1, setting.server());
+        statement.setString(2, setting.component());
+        statement.setString(3, setting.name());
+        statement.setString(4, setting.value());
+    }
+
+    @Nullable
+    @Override
+    public String getSettingVersion(String server) {
+        List<String> versions = query("SELECT version FROM setting_version WHERE server_id=?;",
+            row -> row.getString(1), server);
+        return versions.isEmpty() ? null : versions.get(0);
+    }
+
+    @Override
+    public void incrementSettingVersions(Collection<String> servers) {
+        for (String server : servers) {
+            update("INSERT INTO setting_version (server_id,version) VALUES(?,1) " +
+                "ON DUPLICATE KEY UPDATE version=version+1;", server);
+        }
+    }
+
+    @NotNull
+    @Override
+    public Map<Integer, String> getQuestions(String server) {
+        Map<Integer, String> questions = new HashMap<>();
+        query("SELECT q_number,value FROM faq WHERE server_id=?;",
+            row -> questions.put(row.getInt(1), row.getString(2)), server);
+        return questions;
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Map<Integer, String>> getAllQuestions() {
+        Map<String, Map<Integer, String>> questions = new HashMap<>();
+        query("SELECT server_id,q_number,value FROM faq;",
+            row -> questions.computeIfAbsent(row.getString(1), k -> new HashMap<>())
+                .put(row.getInt(2), row.getString(3)));
+        return questions;
+    }
+
+    @Override
+    public void setQuestion(String server, int id, String value) {
+        update("INSERT INTO faq (server_id,q_number,value) VALUES(?,?,?) ON DUPLICATE KEY UPDATE value=?;",
+            server, id, value, value);
+    }
+
+    @Override
+    public void removeQuestion(String server, int id) {
+        update("DELETE FROM faq WHERE server_id=? AND q_number=?;", server, id);
+    }
+
+    @NotNull
+    @Override
+    public Map<String, String> getPolls(String server) {
+        Map<String, String> polls = new HashMap<>();
+        query("SELECT poll_id,value FROM poll WHERE server_id=?;",
+            row -> polls.put(row.getString(1), row.getString(2)), server);
+        return polls;
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Map<String, String>> getAllPolls() {
+        Map<String, Map<String, String>> polls = new HashMap<>();
+        query("SELECT server_id,poll_id,value FROM poll;",
+            row -> polls.computeIfAbsent(row.getString(1), k -> new HashMap<>())
+                .put(row.getString(2), row.getString(3)));
+        return polls;
+    }
+
+    @Override
+    public void setPoll(String server, String id, String value) {
+        update("INSERT INTO poll (server_id,poll_id,value) VALUES(?,?,?) ON DUPLICATE KEY UPDATE value=?;",
+            server, id, value, value);
+    }
+
+    @Override
+    public synchronized void removePoll(String server, String id) {
+        update("DELETE FROM poll WHERE server_id=? AND poll_id=?;", server, id);
+        update("DELETE FROM poll_vote WHERE server_id=? AND poll_id=?;", server, id);
+    }
+
+    @NotNull
+    @Override
+    public List<PollVote> getPollVotes(String server) {
+        return query("SELECT server_id,poll_id,seq,user_id,choice,op FROM poll_vote WHERE server_id=? ORDER BY seq;",
+            EmbeddedStorage::toVote, server);
+    }
+
+    @NotNull
+    @Override
+    public List<PollVote> getAllPollVotes() {
+        return query("SELECT server_id,poll_id,seq,user_id,choice,op FROM poll_vote ORDER BY seq;",
+            EmbeddedStorage::toVote);
+    }
+
+    @NotNull
+    private static PollVote toVote(@NotNull ResultSet row) throws SQLException {
+        return new PollVote(row.getString(1), row.getString(2), row.getLong(3), row.getString(4),
+            row.getString(5), "S".equals(row.getString(6)));
+    }
+
+    @Override
+    public void addPollVote(PollVote vote) {
+        update("INSERT INTO poll_vote (server_id,poll_id,seq,user_id,choice,op) VALUES(?,?,?,?,?,?);",
+            vote.server(), vote.poll(), vote.sequence(), vote.user(), vote.choice(), vote.replace() ? "S" : "A");
+    }
+
+    @Override
+    public synchronized void compactPoll(String server, String id, String value, long sequence) {
+        setPoll(server, id, value);
+        update("DELETE FROM poll_vote WHERE server_id=? AND poll_id=? AND seq<=?;", server, id, sequence);
+    }
+
+}
@@ -0,0 +1,249 @@
+package com.thefatrat.eddiejunior.storage;
+
+import com.thefatrat.eddiejunior.Initializer;
+import com.thefatrat.eddiejunior.metrics.QueryMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+import java.util.function.ToIntFunction;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+
+/**
+ * Records the latency, row count and errors of every call to another storage in {@link QueryMetrics}, under
+ * the name of the method. Since every storage method blocks until the storage has answered, the latency is
+ * the full round trip of the call, including all statements it issues, and every failure is counted as an
+ * error. Calls slower than the {@code slow_query_ms} property (500 ms by default, 0 to disable) are logged
+ * with their arguments. Only ids are logged as they are; other text is replaced by its length, so that no
+ * message contents end up in the logs.
+ */
+class InstrumentedStorage implements Storage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(InstrumentedStorage.class);
+    private static final Pattern ID = Pattern.compile("\\d{1,20}");
+    private static final long DEFAULT_SLOW_QUERY_MILLIS = 500;
+
+    private final Storage delegate;
+    private final QueryMetrics metrics = QueryMetrics.getInstance();
+    private final long slowQueryMicros = TimeUnit.MILLISECONDS.toMicros(getConfiguredSlowQueryMillis());
+
+    InstrumentedStorage(@NotNull Storage delegate) {
+        this.delegate = delegate;
+    }
+
+    private static long getConfiguredSlowQueryMillis() {
+        String property = Initializer.getInstance().getProperty("slow_query_ms");
+        if (property == null) {
+            return DEFAULT_SLOW_QUERY_MILLIS;
+        }
+        try {
+            return Math.max(0, Long.parseLong(property.strip()));
+        } catch (NumberFormatException e) {
+            return DEFAULT_SLOW_QUERY_MILLIS;
+        }
+    }
+
+    private <T> T record(@NotNull String query, @NotNull ToIntFunction<T> rows, @NotNull Supplier<T> call,
+        Object... args) {
+        long start = System.nanoTime();
+        T result = null;
+        Throwable error = null;
+        try {
+            result = call.get();
+            return result;
+        } catch (RuntimeException | Error e) {
+            error = e;
+            throw e;
+        } finally {
+            long micros = TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start);
+            metrics.record(query, micros, result == null ? 0 : rows.applyAsInt(result), error);
+            if (slowQueryMicros > 0 && micros >= slowQueryMicros) {
+                String context = metrics.getContext();
+                LOGGER.warn("Slow query {} took {} ms in {} with arguments {}", query, micros / 1000,
+                    context == null ? "background" : context, redact(args));
+            }
+        }
+    }
+
+    private void record(@NotNull String query, int rows, @NotNull Runnable call, Object... args) {
+        record(query, ignored -> rows, () -> {
+            call.run();
+            return Boolean.TRUE;
+        }, args);
+    }
+
+    @NotNull
+    static String redact(Object @NotNull [] args) {
+        return Arrays.stream(args).map(InstrumentedStorage::redact).collect(Collectors.joining(", ", "[", "]"));
+    }
+
+    @NotNull
+    private static String redact(@Nullable Object arg) {
+        if (arg == null || arg instanceof Number || arg instanceof Boolean) {
+            return String.valueOf(arg);
+        }
+        if (arg instanceof Collection<?> collection) {
+            return collection.size() + " items";
+        }
+        String text = arg.toString();
+        return ID.matcher(text).matches() ? text : "<" + text.length() + " chars>";
+    }
+
+    @Override
+    public boolean ping() {
+        return record("ping", ignored -> 0, delegate::ping);
+    }
+
+    @Override
+    public void checkSchema() {
+        record("checkSchema", 0, delegate::checkSchema);
+    }
+
+    @Override
+    public void close() {
+        delegate.close();
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Set<String>> getEnabledComponents() {
+        return record("getEnabledComponents", Map::size, delegate::getEnabledComponents);
+    }
+
+    @NotNull
+    @Override
+    public Set<String> getEnabledComponents(String server) {
+        return record("getServerComponents", Set::size, () -> delegate.getEnabledComponents(server), server);
+    }
+
+    @Override
+    public void setComponentEnabled(String server, String component, boolean enabled) {
+        record("setComponentEnabled", 1, () -> delegate.setComponentEnabled(server, component, enabled),
+            server, component, enabled);
+    }
+
+    @NotNull
+    @Override
+    public List<String> getSettingValues(String server, String component, String name) {
+        return record("getSettingValues", List::size, () -> delegate.getSettingValues(server, component, name),
+            server, component, name);
+    }
+
+    @NotNull
+    @Override
+    public Map<String, List<String>> getSettingValues(String server, String component, Collection<String> names) {
+        return record("getSettingValuesBatch", result -> result.values().stream().mapToInt(List::size).sum(),
+            () -> delegate.getSettingValues(server, component, names), server, component, names);
+    }
+
+    @NotNull
+    @Override
+    public List<Setting> getSettings(String server) {
+        return record("getServerSettings", List::size, () -> delegate.getSettings(server), server);
+    }
+
+    @NotNull
+    @Override
+    public List<Setting> getAllSettings() {
+        return record("getAllSettings", List::size, delegate::getAllSettings);
+    }
+
+    @Override
+    public void writeSettings(Collection<Setting> replaced, Collection<Setting> removed,
+        Collection<Setting> added) {
+        record("writeSettings", replaced.size() + removed.size() + added.size(),
+            () -> delegate.writeSettings(replaced, removed, added), replaced, removed, added);
+    }
+
+    @Nullable
+    @Override
+    public String getSettingVersion(String server) {
+        return record("getSettingVersion", ignored -> 1, () -> delegate.getSettingVersion(server), server);
+    }
+
+    @Override
+    public void incrementSettingVersions(Collection<String> servers) {
+        record("incrementSettingVersions", servers.size(), () -> delegate.incrementSettingVersions(servers),
+            servers);
+    }
+
+    @NotNull
+    @Override
+    public Map<Integer, String> getQuestions(String server) {
+        return record("getQuestions", Map::size, () -> delegate.getQuestions(server), server);
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Map<Integer, String>> getAllQuestions() {
+        return record("getAllQuestions", result -> result.values().stream().mapToInt(Map::size).sum(),
+            delegate::getAllQuestions);
+    }
+
+    @Override
+    public void setQuestion(String server, int id, String value) {
+        record("setQuestion", 1, () -> delegate.setQuestion(server, id, value), server, id, value);
+    }
+
+    @Override
+    public void removeQuestion(String server, int id) {
+        record("removeQuestion", 1, () -> delegate.removeQuestion(server, id), server, id);
+    }
+
+    @NotNull
+    @Override
+    public Map<String, String> getPolls(String server) {
+        return record("getPolls", Map::size, () -> delegate.getPolls(server), server);
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Map<String, String>> getAllPolls() {
+        return record("getAllPolls", result -> result.values().stream().mapToInt(Map::size).sum(),
+            delegate::getAllPolls);
+    }
+
+    @Override
+    public void setPoll(String server, String id, String value) {
+        record("setPoll", 1, () -> delegate.setPoll(server, id, value), server, id, value);
+    }
+
+    @Override
+    public void removePoll(String server, String id) {
+        record("removePoll", 1, () -> delegate.removePoll(server, id), server, id);
+    }
+
+    @NotNull
+    @Override
+    public List<PollVote> getPollVotes(String server) {
+        return record("getPollVotes", List::size, () -> delegate.getPollVotes(server), server);
+    }
+
+    @NotNull
+    @Override
+    public List<PollVote> getAllPollVotes() {
+        return record("getAllPollVotes", List::size, delegate::getAllPollVotes);
+    }
+
+    @Override
+    public void addPollVote(PollVote vote) {
+        record("addPollVote", 1, () -> delegate.addPollVote(vote), vote.server(), vote.poll(), vote.sequence(),
+            vote.user(), vote.choice());
+    }
+
+    @Override
+    public void compactPoll(String server, String id, String value, long sequence) {
+        record("compactPoll", 1, () -> delegate.compactPoll(server, id, value, sequence), server, id, value,
+            sequence);
+    }
+
+}
@@ -0,0 +1,396 @@
+package com.thefatrat.eddiejunior.storage;
+
+import com.pascalnb.dbwrapper.Database;
+import com.pascalnb.dbwrapper.DatabaseException;
+import com.pascalnb.dbwrapper.Mapper;
+import com.pascalnb.dbwrapper.Query;
+import com.pascalnb.dbwrapper.action.DatabaseAction;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+/**
+ * Storage on a MySQL server, through the database wrapper. Tables that were added after the original schema
+ * are created by {@link #checkSchema()}; the others are expected to exist.
+ */
+class MySqlStorage implements Storage {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(MySqlStorage.class);
+    private static final int MAX_ROWS_PER_STATEMENT = 500;
+    private static final Map<String, String> ADDED_TABLES = Map.of(
+        "poll_vote", "CREATE TABLE IF NOT EXISTS poll_vote (server_id VARCHAR(32) NOT NULL, " +
+            "poll_id VARCHAR(32) NOT NULL, seq BIGINT NOT NULL, user_id VARCHAR(32) NOT NULL, " +
+            "choice VARCHAR(255) NOT NULL, op CHAR(1) NOT NULL, PRIMARY KEY (server_id,poll_id,seq));",
+        "setting_version", "CREATE TABLE IF NOT EXISTS setting_version (server_id VARCHAR(32) NOT NULL, " +
+            "version BIGINT NOT NULL, PRIMARY KEY (server_id));"
+    );
+
+    private static final Query GET_COMPONENTS = new Query(
+        "SELECT server_id,component_name,enabled FROM component;");
+
+    private static final Query GET_SERVER_COMPONENTS = new Query(
+        "SELECT component_name,enabled FROM component WHERE server_id=?;");
+
+    private static final Query TOGGLE_COMPONENT = new Query(
+        "INSERT INTO component (server_id,component_name,enabled) VALUES(?,?,?) " +
+            "ON DUPLICATE KEY UPDATE enabled=?;");
+
+    private static final Query GET_SETTINGS = new Query(
+        "SELECT value FROM setting WHERE server_id=? AND component_name=? AND name=?;");
+
+    private static final Query GET_SERVER_SETTINGS = new Query(
+        "SELECT component_name,name,value FROM setting WHERE server_id=?;");
+
+    private static final Query GET_ALL_SETTINGS = new Query(
+        "SELECT server_id,component_name,name,value FROM setting;");
+
+    private static final String REMOVE_SETTINGS =
+        "DELETE FROM setting WHERE (server_id,component_name,name) IN (%s);";
+
+    private static final String REMOVE_SETTING_VALUES =
+        "DELETE FROM setting WHERE (server_id,component_name,name,value) IN (%s);";
+
+    private static final String ADD_SETTINGS =
+        "INSERT INTO setting (server_id,component_name,name,value) VALUES %s;";
+
+    private static final Query GET_SETTING_VERSION = new Query(
+        "SELECT version FROM setting_version WHERE server_id=?;");
+
+    private static final String INCREMENT_SETTING_VERSIONS =
+        "INSERT INTO setting_version (server_id,version) VALUES %s ON DUPLICATE KEY UPDATE version=version+1;";
+
+    private static final Query GET_QUESTIONS = new Query(
+        "SELECT * FROM faq WHERE server_id=?;");
+
+    private static final Query GET_ALL_QUESTIONS = new Query(
+        "SELECT * FROM faq;");
+
+    private static final Query REMOVE_QUESTION = new Query(
+        "DELETE FROM faq WHERE server_id=? AND q_number=?;");
+
+    private static final Query SET_QUESTION = new Query(
+        "INSERT INTO faq (server_id,q_number,value) VALUES(?,?,?) ON DUPLICATE KEY UPDATE value=?;");
+
+    private static final Query GET_POLLS = new Query(
+        "SELECT * FROM poll WHERE server_id=?;");
+
+    private static final Query GET_ALL_POLLS = new Query(
+        "SELECT * FROM poll;");
+
+    private static final Query SET_POLL = new Query(
+        "INSERT INTO poll (server_id,poll_id,value) VALUES(?,?,?) ON DUPLICATE KEY UPDATE value=?;");
+
+    private static final Query REMOVE_POLL = new Query(
+        "DELETE FROM poll WHERE server_id=? AND poll_id=?;");
+
+    private static final Query GET_POLL_VOTES = new Query(
+        "SELECT server_id,poll_id,seq,user_id,choice,op FROM poll_vote WHERE server_id=? ORDER BY seq;");
+
+    private static final Query GET_ALL_POLL_VOTES = new Query(
+        "SELECT server_id,poll_id,seq,user_id,choice,op FROM poll_vote ORDER BY seq;");
+
+    private static final Query ADD_POLL_VOTE = new Query(
+        "INSERT INTO poll_vote (server_id,poll_id,seq,user_id,choice,op) VALUES(?,?,?,?,?,?);");
+
+    private static final Query REMOVE_POLL_VOTES = new Query(
+        "DELETE FROM poll_vote WHERE server_id=? AND poll_id=? AND seq<=?;");
+
+    private static final Query REMOVE_ALL_POLL_VOTES = new Query(
+        "DELETE FROM poll_vote WHERE server_id=? AND poll_id=?;");
+
+    @Override
+    public boolean ping() {
+        try {
+            Database.getInstance().connect().close();
+            return true;
+        } catch (DatabaseException e) {
+            return false;
+        }
+    }
+
+    @Override
+    public void checkSchema() {
+        ADDED_TABLES.forEach((table, create) -> {
+            try {
+                DatabaseAction.of(new Query(create)).execute().complete();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Could not create table {}", table, e);
+            }
+            try {
+                DatabaseAction.of(new Query("SELECT 1 FROM " + table + " LIMIT 1;")).query().complete();
+            } catch (RuntimeException e) {
+                throw new StorageException("Table " + table + " is missing, create it with: " + create, e);
+            }
+        });
+    }
+
+    @Override
+    public void close() {
+        // every action opens and closes its own connection
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Set<String>> getEnabledComponents() {
+        return DatabaseAction.of(GET_COMPONENTS, Mapper.stream())
+            .query()
+            .map(stream -> {
+                Map<String, Set<String>> enabled = new HashMap<>();
+                stream.forEach(tuple -> {
+                    if ("1".equals(tuple.get("enabled"))) {
+                        enabled.computeIfAbsent(tuple.get("server_id"), k -> new HashSet<>())
+                            .add(tuple.get("component_name"));
+                    }
+                });
+                return enabled;
+            })
+            .complete();
+    }
+
+    @NotNull
+    @Override
+    public Set<String> getEnabledComponents(String server) {
+        return DatabaseAction.of(GET_SERVER_COMPONENTS.withArgs(server), Mapper.stream())
+            .query()
+            .map(stream -> stream
+                .filter(tuple -> "1".equals(tuple.get("enabled")))
+                .map(tuple -> tuple.get("component_name"))
+                .collect(Collectors.toSet()))
+            .complete();
+    }
+
+    @Override
+    public void setComponentEnabled(String server, String component, boolean enabled) {
+        DatabaseAction.of(TOGGLE_COMPONENT.withArgs(server, component, enabled, enabled)).execute().complete();
+    }
+
+    @NotNull
+    @Override
+    public List<String> getSettingValues(String server, String component, String name) {
+        return DatabaseAction.of(GET_SETTINGS.withArgs(server, component, name), Mapper.stringList())
+            .query()
+            .complete();
+    }
+
+    @NotNull
+    @Override
+    public Map<String, List<String>> getSettingValues(String server, String component, Collection<String> names) {
+        List<String> ordered = new ArrayList<>(names);
+        List<DatabaseAction<List<String>>> actions = new ArrayList<>(ordered.size());
+        for (String name : ordered) {
+            actions.add(DatabaseAction.of(GET_SETTINGS.withArgs(server, component, name), Mapper.stringList()));
+        }
+        if (actions.isEmpty()) {
+            return new HashMap<>();
+        }
+        return DatabaseAction.allOf(actions)
+            .query(list -> {
+                Map<String, List<String>> result = new HashMap<>();
+                for (int i = 0; i < list.size(); i++) {
+                    result.put(ordered.get(i), list.get(i));
+                }
+                return result;
+            })
+            .complete();
+    }
+
+    @NotNull
+    @Override
+    public List<Setting> getSettings(String server) {
+        return DatabaseAction.of(GET_SERVER_SETTINGS.withArgs(server), Mapper.stream())
+            .query()
+            .map(stream -> stream
+                .map(tuple -> new Setting(server, tuple.get("component_name"), tuple.get("name"),
+                    tuple.get("value")))
+                .toList())
+            .complete();
+    }
+
+    @NotNull
+    @Override
+    public List<Setting> getAllSettings() {
+        return DatabaseAction.of(GET_ALL_SETTINGS, Mapper.stream())
+            .query()
+            .map(stream -> stream
+                .map(tuple -> new Setting(tuple.get("server_id"), tuple.get("component_name"), tuple.get("name"),
+                    tuple.get("value")))
+                .toList())
+            .complete();
+    }
+
+    @Override
+    public void writeSettings(Collection<Setting> replaced, Collection<Setting> removed,
+        Collection<Setting> added) {
+        List<DatabaseAction<?>> actions = new ArrayList<>();
+        actions.addAll(batch(REMOVE_SETTINGS, "(?,?,?)", replaced.stream()
+            .map(setting -> new Object[]{setting.server(), setting.component(), setting.name()})
+            .toList()));
+        actions.addAll(batch(REMOVE_SETTING_VALUES, "(?,?,?,?)", removed.stream()
+            .map(setting -> new Object[]{setting.server(), setting.component(), setting.name(), setting.value()})
+            .toList()));
+        actions.addAll(batch(ADD_SETTINGS, "(?,?,?,?)", added.stream()
+            .map(setting -> new Object[]{setting.server(), setting.component(), setting.name(), setting.value()})
+            .toList()));
+
+        for (DatabaseAction<?> action : actions) {
+            action.execute().complete();
+        }
+    }
+
+    /**
+     * Builds statements that each handle up to {@value #MAX_ROWS_PER_STATEMENT} rows.
+     *
+     * @param template the statement, with {@code %s} in place of the rows
+     * @param row      the placeholders of a single row
+     * @param rows     the arguments of the rows
+     */
+    @NotNull
+    private static List<DatabaseAction<?>> batch(@NotNull String template, @NotNull String row,
+        @NotNull List<Object[]> rows) {
+        List<DatabaseAction<?>> actions = new ArrayList<>();
+        for (int start = 0; start < rows.size(); start += MAX_ROWS_PER_STATEMENT) {
+            List<Object[]> chunk = rows.subList(start, Math.min(rows.size(), start + MAX_ROWS_PER_STATEMENT));
+            List<Object> args = new ArrayList<>(chunk.size() * 4);
+            chunk.forEach(arguments -> args.addAll(List.of(arguments)));
+            String placeholders = String.join(",", Collections.nCopies(chunk.size(), row));
+            actions.add(DatabaseAction.of(new Query(String.format(template, placeholders)).withArgs(args.toArray())));
+        }
+        return actions;
+    }
+
+    @Nullable
+    @Override
+    public String getSettingVersion(String server) {
+        return DatabaseAction.of(GET_SETTING_VERSION.withArgs(server))
+            .query(Mapper.stringValue())
+            .complete();
+    }
+
+    @Override
+    public void incrementSettingVersions(Collection<String> servers) {
+        for (DatabaseAction<?> action : batch(INCREMENT_SETTING_VERSIONS, "(?,1)",
+            servers.stream().map(server -> new Object[]{server}).toList())) {
+            action.execute().complete();
+        }
+    }
+
+    @NotNull
+    @Override
+    public Map<Integer, String> getQuestions(String server) {
+        return DatabaseAction.of(GET_QUESTIONS.withArgs(server), Mapper.stream())
+            .query()
+            .map(stream -> stream.collect(Collectors.toMap(
+                tuple -> Integer.parseInt(tuple.get("q_number")),
+                tuple -> tuple.get("value"))))
+            .complete();
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Map<Integer, String>> getAllQuestions() {
+        return DatabaseAction.of(GET_ALL_QUESTIONS, Mapper.stream())
+            .query()
+            .map(stream -> {
+                Map<String, Map<Integer, String>> questions = new HashMap<>();
+                stream.forEach(tuple -> questions.computeIfAbsent(tuple.get("server_id"), k -> new HashMap<>())
+                    .put(Integer.parseInt(tuple.get("q_number")), tuple.get("value")));
+                return questions;
+            })
+            .complete();
+    }
+
+    @Override
+    public void setQuestion(String server, int id, String value) {
+        DatabaseAction.of(SET_QUESTION.withArgs(server, id, value, value)).execute().complete();
+    }
+
+    @Override
+    public void removeQuestion(String server, int id) {
+        DatabaseAction.of(REMOVE_QUESTION.withArgs(server, id)).execute().complete();
+    }
+
+    @NotNull
+    @Override
+    public Map<String, String> getPolls(String server) {
+        return DatabaseAction.of(GET_POLLS.withArgs(server), Mapper.stream())
+            .query()
+            .map(stream -> stream.collect(Collectors.toMap(
+                tuple -> tuple.get("poll_id"),
+                tuple -> tuple.get("value"))))
+            .complete();
+    }
+
+    @NotNull
+    @Override
+    public Map<String, Map<String, String>> getAllPolls() {
+        return DatabaseAction.of(GET_ALL_POLLS, Mapper.stream())
+            .query()
+            .map(stream -> {
+                Map<String, Map<String, String>> polls = new HashMap<>();
+                stream.forEach(tuple -> polls.computeIfAbsent(tuple.get("server_id"), k -> new HashMap<>())
+                    .put(tuple.get("poll_id"), tuple.get("value")));
+                return polls;
+            })
+            .complete();
+    }
+
+    @Override
+    public void setPoll(String server, String id, String value) {
+        DatabaseAction.of(SET_POLL.withArgs(server, id, value, value)).execute().complete();
+    }
+
+    @Override
+    public void removePoll(String server, String id) {
+        DatabaseAction.of(REMOVE_POLL.withArgs(server, id)).execute().complete();
+        DatabaseAction.of(REMOVE_ALL_POLL_VOTES.withArgs(server, id)).execute().complete();
+    }
+
+    @NotNull
+    @Override
+    public List<PollVote> getPollVotes(String server) {
+        return queryVotes(GET_POLL_VOTES.withArgs(server));
+    }
+
+    @NotNull
+    @Override
+    public List<PollVote> getAllPollVotes() {
+        return queryVotes(GET_ALL_POLL_VOTES);
+    }
+
+    @NotNull
+    private static List<PollVote> queryVotes(@NotNull Query query) {
+        return DatabaseAction.of(query, Mapper.stream())
+            .query()
+            .map(stream -> stream
+                .map(tuple -> new PollVote(tuple.get("server_id"), tuple.get("poll_id"),
+                    Long.parseLong(tuple.get("seq")), tuple.get("user_id"), tuple.get("choice"),
+                    "S".equals(tuple.get("op"))))
+                .toList())
+            .complete();
+    }
+
+    @Override
+    public void addPollVote(PollVote vote) {
+        DatabaseAction.of(ADD_POLL_VOTE.withArgs(vote.server(), vote.poll(), vote.sequence(), vote.user(),
+            vote.choice(), vote.replace() ? "S" : "A")).execute().complete();
+    }
+
+    @Override
+    public void compactPoll(String server, String id, String value, long sequence) {
+        // the votes are only deleted once the document that contains them has been written
+        DatabaseAction.of(SET_POLL.withArgs(server, id, value, value)).execute().complete();
+        DatabaseAction.of(REMOVE_POLL_VOTES.withArgs(server, id, sequence)).execute().complete();
+    }
+
+}
@@ -0,0 +1,165 @@
+package com.thefatrat.eddiejunior.storage;
+
+import com.thefatrat.eddiejunior.Initializer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The tables the bot persists its state in. All methods block until the storage has answered, and throw an
+ * unchecked exception when it could not.
+ * <p>
+ * The backend is chosen with the {@code storage} property: {@code mysql} (the default) uses the MySQL
+ * server configured for the database wrapper, and {@code embedded} uses an in-process database in the file
+ * given by the {@code storage_file} property.
+ */
+public interface Storage {
+
+    /**
+     * @return the storage configured by the {@code storage} property, instrumented with
+     * {@link InstrumentedStorage}
+     */
+    @NotNull
+    static Storage fromConfig() {
+        Initializer initializer = Initializer.getInstance();
+        String type = initializer.getProperty("storage");
+        if (type == null || type.isBlank() || "mysql".equalsIgnoreCase(type.strip())) {
+            return new InstrumentedStorage(new MySqlStorage());
+        }
+        if ("embedded".equalsIgnoreCase(type.strip())) {
+            String file = initializer.getProperty("storage_file");
+            return new InstrumentedStorage(
+                new EmbeddedStorage(Path.of(file == null || file.isBlank() ? "eddiejunior" : file.strip())));
+        }
+        throw new IllegalArgumentException("Unknown storage: " + type);
+    }
+
+    /**
+     * A single value of a setting. Settings can have several values.
+     */
+    record Setting(String server, String component, String name, @Nullable String value) {
+    }
+
+    /**
+     * A vote in the vote log of a poll.
+     */
+    record PollVote(String server, String poll, long sequence, String user, String choice, boolean replace) {
+    }
+
+    /**
+     * @return whether the storage can be reached
+     */
+    boolean ping();
+
+    /**
+     * Creates the tables that were added after the storage was first set up, where the storage allows it.
+     *
+     * @throws StorageException when a table is still missing afterwards
+     */
+    void checkSchema();
+
+    /**
+     * Releases the resources of the storage. The storage must not be used afterwards.
+     */
+    void close();
+
+    /**
+     * @return the enabled components of all servers, by server id
+     */
+    @NotNull
+    Map<String, Set<String>> getEnabledComponents();
+
+    @NotNull
+    Set<String> getEnabledComponents(String server);
+
+    void setComponentEnabled(String server, String component, boolean enabled);
+
+    @NotNull
+    List<String> getSettingValues(String server, String component, String name);
+
+    /**
+     * Reads the values of several settings of a component at once.
+     *
+     * @return the values by setting name, with an empty list for settings without values
+     */
+    @NotNull
+    Map<String, List<String>> getSettingValues(String server, String component, Collection<String> names);
+
+    @NotNull
+    List<Setting> getSettings(String server);
+
+    @NotNull
+    List<Setting> getAllSettings();
+
+    /**
+     * Writes a batch of changes to settings, in this order: the deletion of all values of the replaced
+     * settings, the deletion of single values, and the insertion of new values.
+     *
+     * @param replaced the settings of which all values are deleted, ignoring their value
+     * @param removed  the values that are deleted
+     * @param added    the values that are inserted
+     */
+    void writeSettings(Collection<Setting> replaced, Collection<Setting> removed, Collection<Setting> added);
+
+    /**
+     * @return the settings version of a server, or {@code null} if it has none
+     */
+    @Nullable
+    String getSettingVersion(String server);
+
+    void incrementSettingVersions(Collection<String> servers);
+
+    @NotNull
+    Map<Integer, String> getQuestions(String server);
+
+    /**
+     * @return the questions of all servers, by server id and question number
+     */
+    @NotNull
+    Map<String, Map<Integer, String>> getAllQuestions();
+
+    void setQuestion(String server, int id, String value);
+
+    void removeQuestion(String server, int id);
+
+    @NotNull
+    Map<String, String> getPolls(String server);
+
+    /**
+     * @return the poll documents of all servers, by server id and poll id
+     */
+    @NotNull
+    Map<String, Map<String, String>> getAllPolls();
+
+    void setPoll(String server, String id, String value);
+
+    /**
+     * Removes a poll and its vote log.
+     */
+    void removePoll(String server, String id);
+
+    /**
+     * @return the logged votes of the polls of a server, ordered by sequence
+     */
+    @NotNull
+    List<PollVote> getPollVotes(String server);
+
+    /**
+     * @return the logged votes of all polls, ordered by sequence
+     */
+    @NotNull
+    List<PollVote> getAllPollVotes();
+
+    void addPollVote(PollVote vote);
+
+    /**
+     * Writes the document of a poll and removes the logged votes up to and including the given sequence.
+     */
+    void compactPoll(String server, String id, String value, long sequence);
+
+}
@@ -0,0 +1,12 @@
+package com.thefatrat.eddiejunior.storage;
+
+/**
+ * Thrown when the storage could not answer a request.
+ */
+public class StorageException extends RuntimeException {
+
+    public StorageException(String message, Throwable cause) {
+        super(message, cause);
+    }
+
+}
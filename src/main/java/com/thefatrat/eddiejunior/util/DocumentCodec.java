@@ -0,0 +1,151 @@
+package com.thefatrat.eddiejunior.util;
+
+import com.thefatrat.eddiejunior.Initializer;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+/**
+ * Converts a document to and from the text that is stored in the database. Documents are written in a
+ * compact binary format, prefixed with {@value #BINARY_PREFIX} and encoded with Base64, whose first byte is
+ * the version of the format. Every codec also has a readable text format, which is what documents were
+ * stored as before, and is still read for values without the prefix.
+ * <p>
+ * Setting the {@code document_format} property to {@code text} writes the readable format instead, for
+ * example to inspect the database by hand.
+ *
+ * @param <T> the type of the documents
+ */
+public abstract class DocumentCodec<T> {
+
+    private static final char BINARY_PREFIX = '~';
+    private static final boolean WRITE_TEXT = "text".equalsIgnoreCase(
+        Initializer.getInstance().getProperty("document_format"));
+
+    private final int version;
+
+    /**
+     * @param version the version of the binary format that is written, between 1 and 255
+     */
+    protected DocumentCodec(int version) {
+        this.version = version;
+    }
+
+    @NotNull
+    public String encode(@NotNull T document) {
+        if (WRITE_TEXT) {
+            return toText(document);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeByte(version);
+            write(out, document);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return BINARY_PREFIX + Base64.getEncoder().withoutPadding().encodeToString(bytes.toByteArray());
+    }
+
+    /**
+     * @throws IllegalArgumentException if the value is not a valid document
+     */
+    @NotNull
+    public T decode(@NotNull String value) {
+        if (value.isEmpty() || value.charAt(0) != BINARY_PREFIX) {
+            return fromText(value);
+        }
+        byte[] bytes = Base64.getDecoder().decode(value.substring(1));
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes))) {
+            int documentVersion = in.readUnsignedByte();
+            if (documentVersion == 0 || documentVersion > version) {
+                throw new IllegalArgumentException("Unknown document version " + documentVersion);
+            }
+            return read(in, documentVersion);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid document", e);
+        }
+    }
+
+    protected abstract void write(@NotNull DataOutputStream out, @NotNull T document) throws IOException;
+
+    /**
+     * @param version the version of the format the document was written in
+     */
+    @NotNull
+    protected abstract T read(@NotNull DataInputStream in, int version) throws IOException;
+
+    @NotNull
+    protected abstract String toText(@NotNull T document);
+
+    @NotNull
+    protected abstract T fromText(@NotNull String text);
+
+    /**
+     * Writes a snowflake id as a fixed eight byte number.
+     */
+    protected static void writeSnowflake(@NotNull DataOutputStream out, @NotNull String id) throws IOException {
+        out.writeLong(Long.parseUnsignedLong(id));
+    }
+
+    @NotNull
+    protected static String readSnowflake(@NotNull DataInputStream in) throws IOException {
+        return Long.toUnsignedString(in.readLong());
+    }
+
+    /**
+     * Writes a non-negative number in as few bytes as it needs, seven bits per byte.
+     */
+    protected static void writeVarInt(@NotNull DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+
+    protected static long readVarInt(@NotNull DataInputStream in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IOException("Malformed number");
+    }
+
+    /**
+     * Writes a string of any length, which may be {@code null}.
+     */
+    protected static void writeString(@NotNull DataOutputStream out, @Nullable String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1L);
+        out.write(bytes);
+    }
+
+    @Nullable
+    protected static String readString(@NotNull DataInputStream in) throws IOException {
+        long length = readVarInt(in);
+        if (length == 0) {
+            return null;
+        }
+        if (length - 1 > in.available()) {
+            throw new IOException("Malformed string");
+        }
+        return new String(in.readNBytes((int) (length - 1)), StandardCharsets.UTF_8);
+    }
+
+}
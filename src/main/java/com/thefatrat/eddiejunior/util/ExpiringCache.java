@@ -0,0 +1,158 @@
+package com.thefatrat.eddiejunior.util;
+
+import com.thefatrat.eddiejunior.metrics.CacheMetrics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Thread-safe cache whose entries expire a fixed time after they were written, with an upper bound on its
+ * size. Because every entry lives equally long, the order of writes is also the order of expiry, so expired
+ * entries are swept from the front of a write-ordered queue on every write, in amortized constant time. When
+ * the cache is full, the oldest entries are evicted first.
+ * <p>
+ * Entries that are overwritten or removed stay in the queue, marked as dead, until they reach its front or
+ * outnumber the live entries, at which point the queue is compacted. The queue therefore holds at most about
+ * twice as many entries as the cache.
+ * <p>
+ * Reads do not modify the cache, apart from removing an entry they find expired.
+ */
+public class ExpiringCache<K, V> {
+
+    private static final int MIN_COMPACT_SIZE = 16;
+
+    private final Map<K, Node<K, V>> map = new ConcurrentHashMap<>();
+    private final Queue<Node<K, V>> writeOrder = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger queued = new AtomicInteger();
+    private final long ttl;
+    private final int maxSize;
+    private final CacheMetrics.Counters counters;
+
+    /**
+     * @param name    the name to report the hit, miss and eviction counts under
+     * @param ttl     the time entries live after they were written
+     * @param maxSize the maximum number of entries
+     */
+    public ExpiringCache(@NotNull String name, @NotNull Duration ttl, int maxSize) {
+        this.ttl = ttl.toNanos();
+        this.maxSize = maxSize;
+        this.counters = CacheMetrics.getInstance().getCounters(name);
+    }
+
+    @Nullable
+    public V get(@NotNull K key) {
+        Node<K, V> node = map.get(key);
+        if (node == null) {
+            counters.miss();
+            return null;
+        }
+        if (node.isExpired(System.nanoTime())) {
+            if (map.remove(key, node)) {
+                node.dead = true;
+                counters.evict();
+            }
+            counters.miss();
+            return null;
+        }
+        counters.hit();
+        return node.value;
+    }
+
+    public boolean containsKey(@NotNull K key) {
+        Node<K, V> node = map.get(key);
+        return node != null && !node.isExpired(System.nanoTime());
+    }
+
+    public void put(@NotNull K key, @NotNull V value) {
+        long now = System.nanoTime();
+        Node<K, V> node = new Node<>(key, value, now + ttl);
+        Node<K, V> old = map.put(key, node);
+        if (old != null) {
+            old.dead = true;
+        }
+        writeOrder.add(node);
+        queued.incrementAndGet();
+        sweep(now);
+    }
+
+    /**
+     * @return the removed value, or {@code null} if there was none or it had expired
+     */
+    @Nullable
+    public V remove(@NotNull K key) {
+        Node<K, V> node = map.remove(key);
+        if (node == null) {
+            return null;
+        }
+        node.dead = true;
+        if (node.isExpired(System.nanoTime())) {
+            return null;
+        }
+        return node.value;
+    }
+
+    public void clear() {
+        map.clear();
+        writeOrder.clear();
+        queued.set(0);
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    private void sweep(long now) {
+        while (true) {
+            Node<K, V> eldest = writeOrder.peek();
+            if (eldest == null) {
+                return;
+            }
+            if (!eldest.dead && !eldest.isExpired(now) && map.size() <= maxSize) {
+                break;
+            }
+            if (writeOrder.remove(eldest)) {
+                queued.decrementAndGet();
+                if (!eldest.dead && map.remove(eldest.key, eldest)) {
+                    counters.evict();
+                }
+            }
+        }
+
+        // dead entries behind a live one are only reached once it expires, so drop them when they pile up
+        if (queued.get() > 2 * Math.max(map.size(), MIN_COMPACT_SIZE)) {
+            writeOrder.removeIf(node -> {
+                if (node.dead) {
+                    queued.decrementAndGet();
+                    return true;
+                }
+                return false;
+            });
+        }
+    }
+
+    private static class Node<K, V> {
+
+        private final K key;
+        private final V value;
+        private final long expiry;
+        private volatile boolean dead = false;
+
+        private Node(K key, V value, long expiry) {
+            this.key = key;
+            this.value = value;
+            this.expiry = expiry;
+        }
+
+        private boolean isExpired(long now) {
+            return now - expiry >= 0;
+        }
+
+    }
+
+}
@@ -0,0 +1,159 @@
+package com.thefatrat.eddiejunior.util;
+
+import com.thefatrat.eddiejunior.Bot;
+import net.dv8tion.jda.api.entities.Guild;
+import net.dv8tion.jda.api.entities.Message;
+import net.dv8tion.jda.api.entities.channel.middleman.GuildMessageChannel;
+import net.dv8tion.jda.api.exceptions.InsufficientPermissionException;
+import org.jetbrains.annotations.Contract;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reference to a message that only stores the ids needed to find it. The message is retrieved the first time
+ * it is needed and kept for a limited time, and concurrent lookups share a single request. A message that could
+ * not be retrieved is remembered as missing for the same time, so that a deleted message does not cost a
+ * failing request on every lookup.
+ */
+public class LazyMessage {
+
+    private static final long TTL = TimeUnit.MINUTES.toMillis(10);
+
+    private final String guildId;
+    private final String channelId;
+    private final String messageId;
+    private Message message = null;
+    private boolean missing = false;
+    private long expiry = 0;
+    private CompletableFuture<Message> pending = null;
+
+    public LazyMessage(@NotNull String guildId, @NotNull String channelId, @NotNull String messageId) {
+        this.guildId = guildId;
+        this.channelId = channelId;
+        this.messageId = messageId;
+    }
+
+    /**
+     * Creates a reference from an already retrieved message, which is cached straight away.
+     *
+     * @param message the message
+     * @return the reference
+     */
+    @NotNull
+    public static LazyMessage of(@NotNull Message message) {
+        LazyMessage lazyMessage = new LazyMessage(message.getGuildId(), message.getChannelId(), message.getId());
+        lazyMessage.cache(message);
+        return lazyMessage;
+    }
+
+    /**
+     * Parses a reference from a string in the format {@code channelId_messageId}.
+     *
+     * @param messageString the string
+     * @param guild         the guild the message belongs to
+     * @return the reference, or {@code null} if the string is {@code null} or malformed
+     */
+    @Nullable
+    @Contract("null, _ -> null")
+    public static LazyMessage fromString(@Nullable String messageString, @NotNull Guild guild) {
+        if (messageString == null) {
+            return null;
+        }
+        String[] split = messageString.split("_", 2);
+        if (split.length != 2) {
+            return null;
+        }
+        return new LazyMessage(guild.getId(), split[0], split[1]);
+    }
+
+    public String getChannelId() {
+        return channelId;
+    }
+
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public String getJumpUrl() {
+        return Message.JUMP_URL.formatted(guildId, channelId, messageId);
+    }
+
+    /**
+     * @return the channel of the message, or {@code null} if it does not exist anymore
+     */
+    @Nullable
+    public GuildMessageChannel getChannel() {
+        Guild guild = Bot.getInstance().getJDA().getGuildById(guildId);
+        if (guild == null) {
+            return null;
+        }
+        return guild.getChannelById(GuildMessageChannel.class, channelId);
+    }
+
+    private synchronized void cache(@Nullable Message message) {
+        this.message = message;
+        this.missing = message == null;
+        this.expiry = System.currentTimeMillis() + TTL;
+    }
+
+    /**
+     * Retrieves the message, or returns the cached message if it has not expired yet.
+     *
+     * @return a future that completes with the message, or with {@code null} if it could not be retrieved
+     */
+    @NotNull
+    public synchronized CompletableFuture<Message> resolve() {
+        if ((message != null || missing) && System.currentTimeMillis() < expiry) {
+            return CompletableFuture.completedFuture(message);
+        }
+        if (pending != null) {
+            return pending;
+        }
+
+        GuildMessageChannel channel = getChannel();
+        if (channel == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        CompletableFuture<Message> future = new CompletableFuture<>();
+        try {
+            channel.retrieveMessageById(messageId).queue(
+                result -> complete(future, result),
+                e -> complete(future, null)
+            );
+        } catch (InsufficientPermissionException e) {
+            return CompletableFuture.completedFuture(null);
+        }
+
+        pending = future;
+        return future;
+    }
+
+    private void complete(CompletableFuture<Message> future, @Nullable Message result) {
+        synchronized (this) {
+            if (pending == future) {
+                pending = null;
+            }
+            cache(result);
+        }
+        future.complete(result);
+    }
+
+    /**
+     * Drops the cached message, so that the next lookup retrieves it again.
+     */
+    public synchronized void invalidate() {
+        message = null;
+        missing = false;
+        expiry = 0;
+    }
+
+    @Override
+    public String toString() {
+        return channelId + "_" + messageId;
+    }
+
+}
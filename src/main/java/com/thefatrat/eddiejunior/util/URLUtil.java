@@ -75,19 +75,4 @@ public final class URLUtil {
         return message;
     }
 
-    @Nullable
-    public static Message getMessageFromString(@Nullable String messageString, Guild guild) {
-        if (messageString == null) {
-            return null;
-        }
-        String[] split = messageString.split("_", 2);
-        MessageChannel channel = guild.getChannelById(MessageChannel.class, split[0]);
-        if (channel == null) {
-            return null;
-        }
-        return channel.retrieveMessageById(split[1])
-            .onErrorMap(e -> null)
-            .complete();
-    }
-
 }